@@ -161,7 +161,7 @@ public interface Annunciator extends AutoCloseable {
 	     *							and returns that.
 	     * @return 					the default annunciator
 	     */
-	    static protected Annunciator defaultAnnunciator(Annunciator anAnnunciator) {
+	    static protected synchronized Annunciator defaultAnnunciator(Annunciator anAnnunciator) {
 	        Annunciator answer = null;
 	        if (defaultAnnunciator == null) {
 	            if (anAnnunciator == null) {
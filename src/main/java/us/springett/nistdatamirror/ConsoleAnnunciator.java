@@ -46,7 +46,7 @@ public class ConsoleAnnunciator implements Annunciator {
      * @param percent   the degree of completion, expressed as an int 
      *                  between zero and one hundred, inclusive.
      */
-    public void busyPrint(int percent) {
+    public synchronized void busyPrint(int percent) {
         if (lastBusyCharIx < 0) {
             System.out.print(overwriteChars);
             System.out.print(busyChars.charAt(0));
@@ -83,7 +83,7 @@ public class ConsoleAnnunciator implements Annunciator {
      * Remove any previously-displayed indication of the application's 
      * liveness.
      */
-    public void endBusy() {
+    public synchronized void endBusy() {
         if (lastBusyCharIx >= 0) {
             System.out.print(overwriteChars);
             lastBusyCharIx = -1;
@@ -101,7 +101,7 @@ public class ConsoleAnnunciator implements Annunciator {
      * @param aMsg  the message to be displayed to the user.
      *
      */
-    public void announce(String aMsg) {
+    public synchronized void announce(String aMsg) {
         if (lastBusyCharIx >= 0) {
             System.out.print(overwriteChars);
         }
@@ -113,7 +113,7 @@ public class ConsoleAnnunciator implements Annunciator {
      * any underlying resources. A try-with-resources statement invokes this method
      * automatically at the end of its try block. 
      */
-    public void close() {
+    public synchronized void close() {
     	endBusy();
     }
 }
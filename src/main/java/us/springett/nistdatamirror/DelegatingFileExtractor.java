@@ -84,6 +84,12 @@ public class DelegatingFileExtractor extends FileExtractor {
      *                                      prevents this extractor from extracting ANY file.
      */
     public String[] getSuffixes() throws FileExtractionException {
+        synchronized (DelegatingFileExtractor.class) {
+            return getSuffixesImpl();
+        }
+    }
+
+    private String[] getSuffixesImpl() throws FileExtractionException {
         if (suffixes == null) {
             suffixes = new String[0];
             ArrayList<String> sfxList = new ArrayList<String>();
@@ -92,6 +98,7 @@ public class DelegatingFileExtractor extends FileExtractor {
                 try {
                     FileExtractor anExtractor = xClass.newInstance();
                     anExtractor.initialize(myFile, myAnnunciator);
+                    shareDigestRecorder(anExtractor);
                     for (String aString: anExtractor.getSuffixes()) {
                         sfxList.add(aString);
                     }
@@ -124,7 +131,7 @@ public class DelegatingFileExtractor extends FileExtractor {
      * @return  an ArrayList of Classes to try as extractors when the type of the file
      *          is unknown
      */
-    private ArrayList<Class<? extends FileExtractor>> getAvailableExtractorClasses() {
+    private static synchronized ArrayList<Class<? extends FileExtractor>> getAvailableExtractorClasses() {
         if (availableExtractorClasses == null) {
             availableExtractorClasses = new ArrayList<Class<? extends FileExtractor>>();
             availableExtractorClasses.add(UdfFileExtractor.class);
@@ -154,6 +161,7 @@ public class DelegatingFileExtractor extends FileExtractor {
                 try {
                     anExtractor = xClass.newInstance();
                     anExtractor.initialize(myFile, myAnnunciator);
+                    shareDigestRecorder(anExtractor);
                     anExtractor.extractFile(recursion);
                     anExtractor.close();
                     return;
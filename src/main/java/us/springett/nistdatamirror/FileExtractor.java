@@ -18,7 +18,21 @@ package us.springett.nistdatamirror;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import us.springett.nistdatamirror.internal.Digests;
 
 /**
  * @author Brent Whitmore (bwhitmore@whitware.com)
@@ -44,6 +58,70 @@ public abstract class FileExtractor implements AutoCloseable {
 
     private Boolean initialized = false;
 	private static Annunciator defaultAnnunciator = null;
+    private Collection<String> digestAlgorithms = null;
+    private BiConsumer<File, Map<String, String>> digestRecorder = null;
+
+    // What every extractor in the process is doing, for monitoring.
+    private static final Set<File> activeFiles = ConcurrentHashMap.newKeySet();
+    private static final LongAdder filesExtracted = new LongAdder();
+    private static final LongAdder bytesExtracted = new LongAdder();
+    private static final Map<String, ExtractorStats> statsByType = new ConcurrentHashMap<String, ExtractorStats>();
+    // The time spent in extractions finished on each thread, so that an extractor's
+    // time can exclude that of the extractions it hands files to.
+    private static final ThreadLocal<long[]> finishedNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * The name under which registerMBean() registers the extraction framework's MBean.
+     */
+    public static final String MBEAN_NAME = "us.springett.nistdatamirror:type=FileExtractor";
+
+    /**
+     * Counts the work done by one type of extractor throughout the process.  The time
+     * an extractor spends extracting a file excludes the time spent recursively 
+     * extracting the files it extracts, which is charged to their own extractors.
+     */
+    public static class ExtractorStats {
+        private final LongAdder files = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        /**
+         * Return the number of files the extractors have extracted.
+         *
+         * @return  the count
+         */
+        public long files() {
+            return files.sum();
+        }
+
+        /**
+         * Return the number of bytes the extractors have extracted.
+         *
+         * @return  the count
+         */
+        public long bytes() {
+            return bytes.sum();
+        }
+
+        /**
+         * Return the time the extractors have spent extracting.
+         *
+         * @return  the time in seconds
+         */
+        public double seconds() {
+            return nanos.sum() / 1e9;
+        }
+
+        /**
+         * Return the rate at which the extractors have extracted bytes.
+         *
+         * @return  the rate in bytes per second, or zero if no time has been spent
+         */
+        public double throughput() {
+            double seconds = seconds();
+            return (seconds <= 0) ? 0 : bytes() / seconds;
+        }
+    }
 
     /**
      * Represents all exceptions thrown by the FileExtractor class
@@ -420,10 +498,108 @@ public abstract class FileExtractor implements AutoCloseable {
      */
     public final void extractFileTo(File outDir, Integer recursion) throws FileExtractionException {
         checkInitialized();
-        extractFileToImpl(outDir, recursion);
+        long[] finished = finishedNanos.get();
+        long finishedBefore = finished[0];
+        long start = System.nanoTime();
+        activeFiles.add(myFile);
+        try {
+            extractFileToImpl(outDir, recursion);
+        } finally {
+            activeFiles.remove(myFile);
+            long elapsed = System.nanoTime() - start;
+            statsFor(getClass()).nanos.add(elapsed - (finished[0] - finishedBefore));
+            finished[0] = finishedBefore + elapsed;
+        }
+    }
+
+    /**
+     * Return the files that extractors throughout the process are extracting at the 
+     * moment, including files being extracted recursively from other files.
+     *
+     * @return  the files
+     */
+    public static List<File> activeExtractions() {
+        return new ArrayList<File>(activeFiles);
+    }
+
+    /**
+     * Return the number of files that extractors throughout the process have extracted.
+     *
+     * @return  the count
+     */
+    public static long filesExtracted() {
+        return filesExtracted.sum();
+    }
+
+    /**
+     * Return the number of bytes that extractors throughout the process have extracted.
+     *
+     * @return  the count
+     */
+    public static long bytesExtracted() {
+        return bytesExtracted.sum();
+    }
+
+    /**
+     * Count a file extracted outside an extractor, as when a download is inflated while
+     * it arrives, under the type of extractor that would otherwise have extracted it.
+     *
+     * @param   type        the type of extractor
+     * @param   bytes       the length of the extracted file
+     * @param   nanos       the time spent extracting it
+     */
+    static void recordExtracted(Class<? extends FileExtractor> type, long bytes, long nanos) {
+        filesExtracted.increment();
+        bytesExtracted.add(bytes);
+        ExtractorStats stats = statsFor(type);
+        stats.files.increment();
+        stats.bytes.add(bytes);
+        stats.nanos.add(nanos);
+    }
+
+    /**
+     * Return the work done by each type of extractor throughout the process.
+     *
+     * @return  the work, keyed by the simple name of the extractor's class
+     */
+    public static Map<String, ExtractorStats> extractorStats() {
+        return new TreeMap<String, ExtractorStats>(statsByType);
+    }
+
+    /**
+     * Register an MBean reporting what extractors throughout the process are doing
+     * with the platform MBean server, under the name <code>MBEAN_NAME</code>, unless
+     * it is already registered.
+     *
+     * @return  the name of the MBean
+     *
+     * @throws JMException  when the MBean cannot be registered.
+     */
+    public static synchronized ObjectName registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MBEAN_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new Monitor(), name);
+        }
+        return name;
     }
 
 
+    /**
+     * Have the FileExtractor digest each file it extracts, including the files extracted
+     * recursively, as the file is written, and report the digests once the file is
+     * complete.
+     *
+     * @param   algorithms  the names of the digests to compute in addition to SHA-256,
+     *                      as understood by the Digests class; may be empty or null
+     * @param   recorder    receives each extracted file with its digests keyed by name,
+     *                      or null to stop digesting
+     */
+    public void recordDigests(Collection<String> algorithms, BiConsumer<File, Map<String, String>> recorder) {
+        digestAlgorithms = algorithms;
+        digestRecorder = recorder;
+    }
+
     /**
      * Releases any resources held by the FileExtractor, making it unfit for further use.
      *
@@ -515,6 +691,41 @@ public abstract class FileExtractor implements AutoCloseable {
         }
     }
 
+    /**
+     * Subclass helper that starts digesting a file about to be extracted, if digests are
+     * being recorded.
+     *
+     * @return  the digests to update with the file's content, or null if digests are not
+     *          being recorded
+     */
+    protected Digests startDigests() {
+        return (digestRecorder == null) ? null : new Digests(digestAlgorithms);
+    }
+
+    /**
+     * Subclass helper that counts a file once it has been extracted, and reports its
+     * digests.  The time spent extracting it is counted by extractFileTo().
+     *
+     * @param   outFile     the extracted file, in its final place
+     * @param   digests     the digests of its content, as returned by startDigests; 
+     *                      null is ignored
+     */
+    protected void recordExtracted(File outFile, Digests digests) {
+        recordExtracted(getClass(), outFile.length(), 0);
+        if (digestRecorder != null && digests != null) {
+            digestRecorder.accept(outFile, digests.values());
+        }
+    }
+
+    /**
+     * Subclass helper that has another extractor record digests just as this one does.
+     *
+     * @param   anExtractor     the extractor to which this extractor hands a file
+     */
+    protected void shareDigestRecorder(FileExtractor anExtractor) {
+        anExtractor.recordDigests(digestAlgorithms, digestRecorder);
+    }
+
     /**
      * Subclass helper method that handles recursive extraction using a DelegatingFileExtractor.  
      *
@@ -529,6 +740,7 @@ public abstract class FileExtractor implements AutoCloseable {
         if (recursion > 0) {
             try {
                 DelegatingFileExtractor delEx = new DelegatingFileExtractor(subFile, myAnnunciator);
+                shareDigestRecorder(delEx);
                 delEx.extractFile(recursion - 1);
                 myAnnunciator.busyPrint();
             } catch (UnsupportedExtractionException e) {
@@ -539,4 +751,36 @@ public abstract class FileExtractor implements AutoCloseable {
             }
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * The work counted for a type of extractor, created when first needed.
+     */
+    private static ExtractorStats statsFor(Class<?> extractorClass) {
+        return statsByType.computeIfAbsent(extractorClass.getSimpleName(), (String aType) -> new ExtractorStats());
+    }
+
+    /*
+     * The MBean through which the extraction framework is monitored.
+     */
+    private static class Monitor implements FileExtractorMXBean {
+        @Override
+        public String[] getActiveExtractions() {
+            List<File> active = activeExtractions();
+            String[] paths = new String[active.size()];
+            for (int ix = 0; ix < paths.length; ix++) {
+                paths[ix] = active.get(ix).getPath();
+            }
+            return paths;
+        }
+
+        @Override
+        public long getFilesExtracted() {
+            return filesExtracted();
+        }
+
+        @Override
+        public long getBytesExtracted() {
+            return bytesExtracted();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror;
+
+/**
+ * The management interface through which JMX clients, such as <code>jconsole</code>,
+ * watch the file extraction framework at work.  It reports on every extractor in the
+ * process.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ *
+ * @see FileExtractor#registerMBean()
+ */
+public interface FileExtractorMXBean {
+
+    /**
+     * Return the paths of the files being extracted at the moment, including files 
+     * being extracted recursively from other files.
+     *
+     * @return  the paths
+     */
+    public String[] getActiveExtractions();
+
+    /**
+     * Return the number of files extracted so far.
+     *
+     * @return  the count
+     */
+    public long getFilesExtracted();
+
+    /**
+     * Return the number of bytes extracted so far.
+     *
+     * @return  the count
+     */
+    public long getBytesExtracted();
+}
@@ -26,6 +26,10 @@ import java.util.zip.ZipFile;
 import java.util.zip.ZipEntry;
 import java.util.Enumeration;
 
+import us.springett.nistdatamirror.internal.AtomicFiles;
+import us.springett.nistdatamirror.internal.Digests;
+import us.springett.nistdatamirror.internal.StreamUtil;
+
 /**
  * A GZip file extractor for the nistdatamirror.FileExtractor framework.
  * <p>
@@ -107,27 +111,31 @@ public class GZipFileExtractor extends FileExtractor {
         if (recursion > 0) {
             GZIPInputStream gzis = null;
             FileOutputStream out = null;
+            File staged = null;
             try {
                 try {
-                    byte[] buffer = new byte[1024];
                     File outFile = new File(outDir, this.stripSuffix(myFile.getName()));
                     if (outFile.exists() && !outFile.isFile()) {
                         throw new FileExtractionException("Cannot write to existing file " + outFile);
                     } 
                     myAnnunciator.announce("Uncompressing " + myFile.getName());
                     gzis = new GZIPInputStream(new FileInputStream(myFile));
-                    out = new FileOutputStream(outFile);
-                    int len;
-                    while ((len = gzis.read(buffer)) > 0) {
-                        out.write(buffer, 0, len);
-                        myAnnunciator.busyPrint();
-                    }
+                    // Readers keep seeing any earlier version until the new one is complete.
+                    staged = AtomicFiles.stage(outFile);
+                    out = new FileOutputStream(staged);
+                    Digests digests = startDigests();
+                    StreamUtil.transferUntilEof(gzis, out.getChannel(), 0, -1, myAnnunciator, digests);
+                    out.close();
+                    AtomicFiles.publish(staged, outFile);
+                    recordExtracted(outFile, digests);
                     recursivelyExtractFile(outFile, recursion);
                 } finally {
                     if (gzis != null)
                         gzis.close();
                     if (out != null)
                         out.close();
+                    if (staged != null)
+                        staged.delete();
                     myAnnunciator.endBusy();
                 }
             } catch (IOException|IllegalArgumentException e) {
@@ -136,4 +144,4 @@ public class GZipFileExtractor extends FileExtractor {
             myAnnunciator.announce("Extracted all files from " + myFile);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,180 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations, such as how long downloads take, in buckets whose bounds double
+ * from one millisecond up, so that their distribution can be summarized without
+ * keeping each duration.  Durations may be recorded from many threads at once without
+ * contending with each other.
+ * <p>
+ * The bucket for bound <i>b</i> counts the durations longer than the previous bucket's
+ * bound and no longer than <i>b</i> milliseconds; the last bucket counts every longer
+ * duration as well.  Percentiles are therefore reported as the bound of the bucket in
+ * which they fall.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 32;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Create an empty histogram.
+     */
+    public LatencyHistogram() {
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            counts[ix] = new LongAdder();
+        }
+    }
+
+    /**
+     * Count a duration.
+     *
+     * @param   nanos   the duration in nanoseconds; negative durations count as zero
+     */
+    public void record(long nanos) {
+        long duration = Math.max(0, nanos);
+        counts[bucketOf(duration)].increment();
+        totalNanos.add(duration);
+        maxNanos.accumulate(duration);
+    }
+
+    /**
+     * Return the number of durations counted.
+     *
+     * @return  the count
+     */
+    public long count() {
+        long total = 0;
+        for (LongAdder aCount : counts) {
+            total += aCount.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Return the sum of the durations counted.
+     *
+     * @return  the sum in milliseconds
+     */
+    public double totalMillis() {
+        return totalNanos.sum() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Return the mean of the durations counted.
+     *
+     * @return  the mean in milliseconds, or zero if none were counted
+     */
+    public double meanMillis() {
+        long n = count();
+        return (n == 0) ? 0 : totalMillis() / n;
+    }
+
+    /**
+     * Return the longest duration counted.
+     *
+     * @return  the duration in milliseconds, or zero if none were counted
+     */
+    public double maxMillis() {
+        return maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Return the bound of the bucket in which a percentile of the durations falls.
+     *
+     * @param   percentile  the percentile, between 0 and 100
+     *
+     * @return  the bound in milliseconds, or zero if no durations were counted
+     */
+    public long percentileMillis(double percentile) {
+        long[] snapshot = bucketCounts();
+        long n = 0;
+        for (long aCount : snapshot) {
+            n += aCount;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100);
+        long seen = 0;
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            seen += snapshot[ix];
+            if (seen >= Math.max(1, rank)) {
+                return bucketBound(ix);
+            }
+        }
+        return bucketBound(BUCKETS - 1);
+    }
+
+    /**
+     * Return the upper bounds of the buckets.
+     *
+     * @return  the bounds in milliseconds, in ascending order
+     */
+    public long[] bucketBounds() {
+        long[] bounds = new long[BUCKETS];
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            bounds[ix] = bucketBound(ix);
+        }
+        return bounds;
+    }
+
+    /**
+     * Return the number of durations counted in each bucket.
+     *
+     * @return  the counts, in the order of the bounds
+     */
+    public long[] bucketCounts() {
+        long[] snapshot = new long[BUCKETS];
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            snapshot[ix] = counts[ix].sum();
+        }
+        return snapshot;
+    }
+
+    /**
+     *  Provides a string representation suitable for use by System.out.print, etc.
+     */
+    @Override
+    public String toString() {
+        return String.format("%d timed, mean %.1f ms, median <= %d ms, 90th percentile <= %d ms, max %.1f ms",
+            count(), meanMillis(), percentileMillis(50), percentileMillis(90), maxMillis());
+    }
+
+    // Private implementation
+
+    private static long bucketBound(int bucket) {
+        return 1L << bucket;
+    }
+
+    private static int bucketOf(long nanos) {
+        long millis = (nanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+        // the smallest bucket whose bound, a power of two, is at least millis
+        int bucket = (millis <= 1) ? 0 : 64 - Long.numberOfLeadingZeros(millis - 1);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+}
@@ -0,0 +1,74 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Learns of each file as the mirror makes it available, so that a caller can start
+ * working with a file, such as indexing a feed, the moment it lands rather than when
+ * the whole refresh finishes.
+ * <p>
+ * The mirror calls its listener from its download and extraction threads, several at
+ * once, so implementations must be thread-safe, and should return promptly, handing
+ * lengthy work to threads of their own.  The methods do nothing by default.
+ * <p>
+ * A listener given to NistDataMirror.setListener() hears of the refreshes that are
+ * not given a listener of their own, including those that schedule() runs.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public interface MirrorListener {
+
+    /**
+     * A listener that ignores every event.
+     */
+    public static final MirrorListener NONE = new MirrorListener() {};
+
+    /**
+     * Called once a file is current in the mirror directory, whether it was just
+     * downloaded or its cached copy was found to be current.
+     *
+     * @param   file        the file
+     * @param   changed     true if the file was downloaded anew during this refresh,
+     *                      false if the cached copy was kept
+     */
+    public default void downloaded(File file, boolean changed) {
+    }
+
+    /**
+     * Called once the contents of a downloaded file are extracted next to it, or are
+     * found to have been extracted already from the same file.
+     *
+     * @param   file        the downloaded file
+     * @param   outputs     the file or directory, or both, into which its contents
+     *                      were extracted
+     */
+    public default void extracted(File file, List<File> outputs) {
+    }
+
+    /**
+     * Called once a refresh stops, whether it ran to completion or not, after the
+     * mirror's metrics have taken account of it.  The mirror calls this method from
+     * the thread that ran the refresh.
+     *
+     * @param   status      the status of the refresh
+     */
+    public default void refreshed(NistDataMirror.CompletionStatus status) {
+    }
+}
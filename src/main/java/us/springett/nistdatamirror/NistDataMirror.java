@@ -16,23 +16,77 @@
  */
 package us.springett.nistdatamirror;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import com.sun.net.httpserver.HttpServer;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileSystems;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
+import us.springett.nistdatamirror.internal.AdaptiveConcurrency;
+import us.springett.nistdatamirror.internal.AtomicFiles;
+import us.springett.nistdatamirror.internal.ContentStore;
+import us.springett.nistdatamirror.internal.Digests;
+import us.springett.nistdatamirror.internal.GzipTee;
+import us.springett.nistdatamirror.internal.HttpStatusException;
+import us.springett.nistdatamirror.internal.MirrorHttpClient;
+import us.springett.nistdatamirror.internal.NvdFeedMerger;
+import us.springett.nistdatamirror.internal.NvdMeta;
+import us.springett.nistdatamirror.internal.Replicator;
+import us.springett.nistdatamirror.internal.SegmentedDownload;
+import us.springett.nistdatamirror.internal.SidecarStore;
 import us.springett.nistdatamirror.internal.StreamUtil;
+import us.springett.nistdatamirror.internal.Throttle;
+import us.springett.nistdatamirror.internal.Upstreams;
 
 // import io.kaitai.struct.KaitaiStream;
 
@@ -44,6 +98,14 @@ import us.springett.nistdatamirror.internal.StreamUtil;
  * of the downloaded files.
  * <p>
  * This class can be called from the command-line or as a library. 
+ * <p>
+ * The mirror reuses the persistent connections that the Java runtime keeps for 
+ * each host, whose number is set JVM-wide by the <code>http.maxConnections</code> 
+ * system property.  The command line sets it to suit its mirrors; an application 
+ * using the mirror as a library should set it, as with a 
+ * <code>-Dhttp.maxConnections</code> launcher flag, to at least the mirror's
+ * <code>connectionsPerHost()</code>, or the mirror makes more new connections than
+ * it needs to.
  *
  * @author Steve Springett (steve.springett@owasp.org) - creator
  * @author Brent Whitmore (bwhitmore@whitware.com) - contributor
@@ -80,6 +142,14 @@ public class NistDataMirror
             annunciator = reporter;
         };
         destination = dest;
+        http = new MirrorHttpClient();
+        http.setTimeouts(this.options.connectTimeout * 1000, this.options.readTimeout * 1000);
+        http.setStallDetection(this.options.stallRate, this.options.stallTime);
+        overallThrottle = new Throttle(this.options.maxRate, null);
+        nvdThrottle = new Throttle(this.options.nvdMaxRate, overallThrottle);
+        nsrlThrottle = new Throttle(this.options.nsrlMaxRate, overallThrottle);
+        upstreams = new Upstreams(this.options.upstreams);
+        metrics = new PrometheusMetrics(destinationPath());
     }
 
     /**
@@ -129,35 +199,258 @@ public class NistDataMirror
      * @return  The CompletionStatus of the downloads and extractions when it stops.
      */
     public CompletionStatus get() {
-        File where;
-        if (destination == null) {
-            String whereStr = System.getProperty("user.dir");
-            if (whereStr == null) {
-                final String msg = "Could not determine the caller's current working directory.";
-                annunciator.announce(msg);
-                throw new Error(msg);
+        return refresh(EnumSet.allOf(RefreshScope.class));
+    }
+
+    /**
+     * Download and optionally extract some groups of the NIST files, as get() does for
+     * all of them.  Refreshes of the same mirror never overlap: a refresh requested 
+     * while another is in progress waits for it to finish.
+     *
+     * @param   scopes  the groups of files to be refreshed
+     *
+     * @return  The CompletionStatus of the downloads and extractions when it stops.
+     */
+    public CompletionStatus refresh(Set<RefreshScope> scopes) {
+        runLock.lock();
+        try {
+            return refreshLocked(scopes, defaultListener);
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    /**
+     * Download and optionally extract the NIST files as get() does, but on a thread of
+     * the given executor, returning at once.
+     *
+     * @param   executor    the executor on which to run the refresh
+     *
+     * @return  a future completed with the CompletionStatus of the downloads and 
+     *          extractions when they stop; cancelling it with interruption stops them
+     *
+     * @see #refreshAsync(Set, Executor, MirrorListener)
+     */
+    public CompletableFuture<CompletionStatus> getAsync(Executor executor) {
+        return refreshAsync(EnumSet.allOf(RefreshScope.class), executor, null);
+    }
+
+    /**
+     * Download and optionally extract the NIST files as get() does, but on a thread of
+     * the given executor, returning at once and telling a listener of each file as it 
+     * becomes available.
+     *
+     * @param   executor    the executor on which to run the refresh
+     * @param   aListener   the listener to tell of each file, or null
+     *
+     * @return  a future completed with the CompletionStatus of the downloads and 
+     *          extractions when they stop; cancelling it with interruption stops them
+     *
+     * @see #refreshAsync(Set, Executor, MirrorListener)
+     */
+    public CompletableFuture<CompletionStatus> getAsync(Executor executor, MirrorListener aListener) {
+        return refreshAsync(EnumSet.allOf(RefreshScope.class), executor, aListener);
+    }
+
+    /**
+     * Download and optionally extract some groups of the NIST files, as refresh() does,
+     * but on a thread of the given executor, returning at once.  As each file becomes
+     * current in the mirror directory, and again once its contents are extracted, the 
+     * listener is told of it, so that the caller can start using each file without 
+     * waiting for the rest.
+     * <p>
+     * Cancelling the returned future with interruption interrupts the refresh, which 
+     * abandons the downloads that have not yet started and stops those under way as 
+     * soon as they notice; the files already downloaded are kept.  A refresh that has
+     * not yet started, because another refresh of the mirror is in progress, does not
+     * start at all.
+     *
+     * @param   scopes      the groups of files to be refreshed
+     * @param   executor    the executor on which to run the refresh
+     * @param   aListener   the listener to tell of each file, or null
+     *
+     * @return  a future completed with the CompletionStatus of the downloads and 
+     *          extractions when they stop, or completed exceptionally if the refresh 
+     *          could not be run at all
+     */
+    public CompletableFuture<CompletionStatus> refreshAsync(Set<RefreshScope> scopes, Executor executor, 
+            MirrorListener aListener) {
+        AsyncRefresh refresh = new AsyncRefresh();
+        executor.execute(() -> refresh.run(scopes, (aListener == null) ? defaultListener : aListener));
+        return refresh;
+    }
+
+    /**
+     * Set the listener to tell of each file, and of each refresh as it stops, during 
+     * the refreshes that are not given a listener of their own: those of get(), 
+     * refresh() and schedule(), and asynchronous ones given none.
+     *
+     * @param   aListener   the listener, or null for none
+     */
+    public void setListener(MirrorListener aListener) {
+        defaultListener = (aListener == null) ? MirrorListener.NONE : aListener;
+    }
+
+    /**
+     * Return the metrics that the mirror keeps of its refreshes, from one refresh to
+     * the next, for export to Prometheus.
+     *
+     * @return  the metrics
+     */
+    public PrometheusMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Register an MBean through which JMX clients can watch the mirror at work with 
+     * the platform MBean server, along with the extraction framework's MBean.  The
+     * mirror's MBean is named for its destination directory, under the domain
+     * <code>us.springett.nistdatamirror</code>.
+     *
+     * @return  the name of the mirror's MBean
+     *
+     * @throws JMException  when the MBean cannot be registered, as when another mirror
+     *                      of the same directory has registered one.
+     *
+     * @see NistDataMirrorMXBean
+     * @see FileExtractor#registerMBean()
+     */
+    public synchronized ObjectName registerMBean() throws JMException {
+        if (mbeanName == null) {
+            ObjectName name = new ObjectName(MBEAN_DOMAIN + ":type=NistDataMirror,name=" 
+                + ObjectName.quote(destinationPath()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Monitor(), name);
+            FileExtractor.registerMBean();
+            mbeanName = name;
+        }
+        return mbeanName;
+    }
+
+    /**
+     * Unregister the mirror's MBean, if it is registered.  The extraction framework's
+     * MBean, which other mirrors may share, stays registered.
+     *
+     * @throws JMException  when the MBean cannot be unregistered.
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (mbeanName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(mbeanName)) {
+                server.unregisterMBean(mbeanName);
             }
-            where = FileSystems.getDefault().getPath(whereStr).toAbsolutePath().toFile();
-        } else {
-            where = destination;
+            mbeanName = null;
         }
-        Date startDate = new Date();
-        Date stopDate = null;
-        this.status.ran = true;
-        this.status.completed  = false;
-        try {
-            checkOutputDir(where);
-            annunciator.announce("Downloading files at " + startDate);
-            getNvdFiles(where);
-            getNsrlFiles(where);
-            this.status.completed = true;
-            stopDate = new Date();
-            annunciator.announce("Downloads complete at " + stopDate);
-        } catch (IOException e) {
-            stopDate = new Date();
-            annunciator.announce("Downloads aborted at " + stopDate);
+    }
+
+    /**
+     * Refresh the mirror periodically, each group of files on the schedule that the
+     * options set for it, until the scheduler is shut down.  Each group is first 
+     * refreshed at once, and then again each time its interval has passed since its 
+     * previous refresh finished.  Groups whose interval is zero, or that the options
+     * do not download, are not scheduled.
+     * <p>
+     * Because refreshes of the mirror never overlap, a refresh that falls due while
+     * another is running occupies one of the scheduler's threads until it can start.
+     *
+     * @param   scheduler   the scheduler on which to run the refreshes
+     *
+     * @return  the scheduled refreshes, which may be cancelled individually
+     */
+    public List<ScheduledFuture<?>> schedule(ScheduledExecutorService scheduler) {
+        List<ScheduledFuture<?>> scheduled = new ArrayList<ScheduledFuture<?>>();
+        for (RefreshScope aScope : RefreshScope.values()) {
+            long minutes = refreshMinutes(aScope);
+            if (minutes <= 0) {
+                continue;
+            }
+            annunciator.announce("Refreshing " + aScope.description() + " every " + minutes + " minutes");
+            scheduled.add(scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    CompletionStatus result = refresh(EnumSet.of(aScope));
+                    annunciator.announce("Refreshed " + aScope.description() + ": " + result);
+                } catch (RuntimeException e) {
+                    // A periodic task that throws is never run again, so report and carry on.
+                    annunciator.announce("Could not refresh " + aScope.description() + ": " + e);
+                }
+            }, 0, minutes, TimeUnit.MINUTES));
         }
-        return status;
+        return scheduled;
+    }
+
+    /**
+     * Groups the NIST files by how often they change, so that each group can be 
+     * refreshed on a schedule of its own.
+     */
+    public static enum RefreshScope {
+        /**
+         * The NVD feeds of recently modified vulnerabilities, which NIST updates 
+         * several times a day.
+         */
+        MODIFIED("modified NVD feeds"),
+
+        /**
+         * The NVD feeds of each year's vulnerabilities, which NIST updates daily.
+         */
+        YEARLY("yearly NVD feeds"),
+
+        /**
+         * The NSRL hash sets, which NIST releases a few times a year.
+         */
+        NSRL("NSRL hash sets");
+
+        private final String description;
+
+        RefreshScope(String description) {
+            this.description = description;
+        }
+
+        /**
+         * Return a description of the group, for reporting.
+         *
+         * @return  the description
+         */
+        public String description() {
+            return description;
+        }
+    }
+
+    /**
+     * Return the largest number of connections to a single host that the mirror may 
+     * use at the same time, and so the number of idle connections per host that the 
+     * Java runtime should keep for it to reuse.
+     *
+     * @return  the number of connections
+     */
+    public int connectionsPerHost() {
+        return Math.max(options.parallel * options.segments, META_FETCH_THREADS);
+    }
+
+    /**
+     * Add a further directory in which the mirror places the files that it downloads
+     * and extracts.  Each file is downloaded and extracted only once, into the
+     * destination given when the mirror was created, and then placed in each further 
+     * directory, by hard link where the directories share a file system and by copy 
+     * otherwise.  The state the mirror keeps about each file is placed alongside it.
+     *
+     * @param   aDir    the additional destination directory
+     */
+    public void addDestination(File aDir) {
+        addDestination(aDir, options.nvdOpt, options.nsrlOpt);
+    }
+
+    /**
+     * Add a further directory in which the mirror places its own selection of the files
+     * that the mirror downloads and extracts.  The mirror downloads the files that any 
+     * of its directories selects, once, into the destination given when the mirror was
+     * created, which therefore holds every one of them, and places in this directory 
+     * only those of its selection, as <code>addDestination(File)</code> does.
+     *
+     * @param   aDir    the additional destination directory
+     * @param   nvdOpt  the NVD files to place in the directory
+     * @param   nsrlOpt the NSRL files to place in the directory
+     */
+    public void addDestination(File aDir, NvdOption nvdOpt, NsrlOption nsrlOpt) {
+        replicas.add(new Replica(aDir, nvdOpt, nsrlOpt));
     }
 
     /**
@@ -332,6 +625,187 @@ public class NistDataMirror
          */
         public Integer recursion = new Integer(1);
 
+        /**
+         * Integer specifying how many files the mirror downloads at the same time.  The
+         * default downloads one file at a time.  Extraction of a downloaded file proceeds
+         * while the remaining downloads are still in flight, regardless of this setting.
+         */
+        public Integer parallel = new Integer(1);
+
+        /**
+         * Integer specifying how many byte ranges of a large file the mirror fetches at 
+         * the same time, each over its own connection.  The default of one downloads 
+         * every file over a single connection.  Only files of at least 
+         * <code>SEGMENTED_DOWNLOAD_THRESHOLD</code> bytes, such as the NSRL ISO images, 
+         * are split.
+         */
+        public Integer segments = new Integer(1);
+
+        /**
+         * Long specifying the greatest rate, in bytes per second, at which the mirror 
+         * downloads, across all of its downloads taken together.  The default of zero
+         * sets no limit.
+         */
+        public Long maxRate = new Long(0);
+
+        /**
+         * Long specifying the greatest rate, in bytes per second, at which the mirror 
+         * downloads NVD files, within the overall limit.  The default of zero sets no 
+         * limit beyond the overall one.
+         */
+        public Long nvdMaxRate = new Long(0);
+
+        /**
+         * Long specifying the greatest rate, in bytes per second, at which the mirror 
+         * downloads NSRL files, within the overall limit.  The default of zero sets no 
+         * limit beyond the overall one.
+         */
+        public Long nsrlMaxRate = new Long(0);
+
+        /**
+         * Boolean specifying whether the mirror adjusts the number of simultaneous
+         * downloads as it goes, starting with one and allowing up to <code>parallel</code>.
+         * The number rises while throughput keeps improving and falls when the server 
+         * signals overload or throughput declines.  The default keeps the number fixed
+         * at <code>parallel</code>.
+         */
+        public Boolean adaptive = Boolean.FALSE;
+
+        /**
+         * Integer specifying how many more times the mirror tries to download a file 
+         * after a failed attempt, waiting exponentially longer, with random jitter, 
+         * before each new attempt.  Default value is three.
+         */
+        public Integer retries = new Integer(3);
+
+        /**
+         * Integer specifying, in seconds, how long the mirror waits for a connection to
+         * a server to be established.  Zero waits forever.  Default value is 30.
+         */
+        public Integer connectTimeout = new Integer(30);
+
+        /**
+         * Integer specifying, in seconds, how long the mirror waits for any data on an
+         * established connection before abandoning it.  Zero waits forever.  Default 
+         * value is 60.
+         */
+        public Integer readTimeout = new Integer(60);
+
+        /**
+         * Long specifying, in bytes per second, the slowest rate at which a download may
+         * arrive, over stallTime seconds spent waiting for it, before the mirror deems
+         * its connection stalled and resumes the download over a new one.  Zero disables
+         * stall detection.  Default value is 1024.
+         */
+        public Long stallRate = new Long(1024);
+
+        /**
+         * Integer specifying, in seconds, how long a download must arrive more slowly
+         * than stallRate to be deemed stalled.  Default value is 60.
+         */
+        public Integer stallTime = new Integer(60);
+
+        /**
+         * Boolean specifying whether the mirror stops downloading as soon as one file
+         * cannot be downloaded.  The default records the failure in the download status
+         * and carries on with the remaining files.
+         */
+        public Boolean failFast = Boolean.FALSE;
+
+        /**
+         * String naming the directory of a content-addressed store in which the mirror
+         * keeps each distinct downloaded or extracted file once, making the files in the
+         * mirror directory hard links to it.  An empty string places the store in the 
+         * mirror directory's sidecar directory; naming a directory lets several mirror 
+         * directories on the same file system share a store.  Default value is null, for
+         * no store.
+         */
+        public String store = null;
+
+        /**
+         * List of the base URLs, or directory paths, of sources from which the mirror
+         * downloads each file, in order, before turning to NIST.  Each source holds files
+         * under the names the mirror gives them, as another mirror's directory does.  A
+         * file that a source lacks, or cannot provide, is sought from the next.  Default 
+         * value is an empty list, for downloading from NIST only.
+         */
+        public List<String> upstreams = new ArrayList<String>();
+
+        /**
+         * Long specifying, in minutes, how often a mirror run by <code>schedule</code> 
+         * refreshes the NVD feeds of recently modified vulnerabilities.  Zero disables
+         * their refresh.  Default value is 15.
+         */
+        public Long modifiedRefresh = new Long(15);
+
+        /**
+         * Long specifying, in minutes, how often a mirror run by <code>schedule</code> 
+         * refreshes the yearly NVD feeds.  Zero disables their refresh.  Default value 
+         * is one day.
+         */
+        public Long yearlyRefresh = new Long(24 * 60);
+
+        /**
+         * Long specifying, in minutes, how often a mirror run by <code>schedule</code> 
+         * refreshes the NSRL hash sets.  Zero disables their refresh.  Default value is
+         * one week.
+         */
+        public Long nsrlRefresh = new Long(7 * 24 * 60);
+
+        /**
+         * Boolean specifying whether the mirror merges the CVE items of the modified
+         * JSON feed into the yearly JSON feeds it already holds, whenever it refreshes
+         * the modified feed.  The yearly feeds then stay current between their own
+         * refreshes, which replace the merged feeds with NIST's.  Default value is false.
+         */
+        public Boolean mergeModified = Boolean.FALSE;
+
+        /**
+         * List of the names of the digests, among <code>sha1</code> and <code>md5</code>,
+         * that the mirror computes and records for every file it downloads or extracts in
+         * addition to the SHA-256 digest it always records.  Digests are computed while
+         * files are written, and are kept in a sidecar next to each downloaded file and
+         * reported in the CompletionStatus.  Default value is an empty list.
+         */
+        public List<String> digests = new ArrayList<String>();
+
+        /**
+         * Default constructor, specifying the default options.
+         */
+        public Options() {
+            super();
+        }
+
+        /**
+         * Copy constructor.
+         *
+         * @param   other   the options to be copied
+         */
+        public Options(Options other) {
+            nsrlOpt = other.nsrlOpt;
+            nvdOpt = other.nvdOpt;
+            recursion = other.recursion;
+            parallel = other.parallel;
+            segments = other.segments;
+            maxRate = other.maxRate;
+            nvdMaxRate = other.nvdMaxRate;
+            nsrlMaxRate = other.nsrlMaxRate;
+            adaptive = other.adaptive;
+            retries = other.retries;
+            connectTimeout = other.connectTimeout;
+            readTimeout = other.readTimeout;
+            stallRate = other.stallRate;
+            stallTime = other.stallTime;
+            failFast = other.failFast;
+            store = other.store;
+            upstreams = new ArrayList<String>(other.upstreams);
+            modifiedRefresh = other.modifiedRefresh;
+            yearlyRefresh = other.yearlyRefresh;
+            nsrlRefresh = other.nsrlRefresh;
+            mergeModified = other.mergeModified;
+            digests = new ArrayList<String>(other.digests);
+        }
+
         /**
          *  Provides a string representation suitable for use by System.out.print, etc.
          */
@@ -340,12 +814,78 @@ public class NistDataMirror
             return (
                 "NSRL option: " + nsrlOpt + 
                 ", NVD option: " + nvdOpt +
-                ", Extraction recursion option: " + recursion);
+                ", Extraction recursion option: " + recursion +
+                ", Parallel downloads option: " + parallel +
+                ", Download segments option: " + segments +
+                ", Maximum rate option: " + maxRate +
+                ", NVD maximum rate option: " + nvdMaxRate +
+                ", NSRL maximum rate option: " + nsrlMaxRate +
+                ", Adaptive concurrency option: " + adaptive +
+                ", Retries option: " + retries +
+                ", Connect timeout option: " + connectTimeout +
+                ", Read timeout option: " + readTimeout +
+                ", Stall rate option: " + stallRate +
+                ", Stall time option: " + stallTime +
+                ", Fail fast option: " + failFast +
+                ", Store option: " + store +
+                ", Upstream sources option: " + upstreams +
+                ", Modified refresh option: " + modifiedRefresh +
+                ", Yearly refresh option: " + yearlyRefresh +
+                ", NSRL refresh option: " + nsrlRefresh +
+                ", Merge modified option: " + mergeModified +
+                ", Digests option: " + digests);
+        }
+
+        /**
+         * Options are equal when every option has the same value, so that mirrors using
+         * them download and extract the same files in the same way.
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Options)) {
+                return false;
+            }
+            Options other = (Options) obj;
+            return nsrlOpt == other.nsrlOpt
+                && nvdOpt == other.nvdOpt
+                && Objects.equals(recursion, other.recursion)
+                && Objects.equals(parallel, other.parallel)
+                && Objects.equals(segments, other.segments)
+                && Objects.equals(maxRate, other.maxRate)
+                && Objects.equals(nvdMaxRate, other.nvdMaxRate)
+                && Objects.equals(nsrlMaxRate, other.nsrlMaxRate)
+                && Objects.equals(adaptive, other.adaptive)
+                && Objects.equals(retries, other.retries)
+                && Objects.equals(connectTimeout, other.connectTimeout)
+                && Objects.equals(readTimeout, other.readTimeout)
+                && Objects.equals(stallRate, other.stallRate)
+                && Objects.equals(stallTime, other.stallTime)
+                && Objects.equals(failFast, other.failFast)
+                && Objects.equals(store, other.store)
+                && Objects.equals(upstreams, other.upstreams)
+                && Objects.equals(modifiedRefresh, other.modifiedRefresh)
+                && Objects.equals(yearlyRefresh, other.yearlyRefresh)
+                && Objects.equals(nsrlRefresh, other.nsrlRefresh)
+                && Objects.equals(mergeModified, other.mergeModified)
+                && Objects.equals(digests, other.digests);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(nsrlOpt, nvdOpt, recursion, parallel, segments, maxRate, nvdMaxRate,
+                nsrlMaxRate, adaptive, retries, connectTimeout, readTimeout, stallRate, stallTime, failFast,
+                store, upstreams, modifiedRefresh, yearlyRefresh, nsrlRefresh, mergeModified, digests);
         }
     }
 
     /**
-     * Communicates the status of a particular class of attempted operations.
+     * Communicates the status of a particular class of attempted operations, and how
+     * they performed.
+     * <p>
+     * The operations are counted, and their performance measured, with counters that
+     * concurrent tasks update without contending with each other.  The public count 
+     * fields are filled in from those counters once the task stops; the methods 
+     * report them while it runs.
      */
     public static class OpGroupStatus {
         /**
@@ -363,6 +903,17 @@ public class NistDataMirror
          */
         public Long errors;
 
+        private final LongAdder succeededCount = new LongAdder();
+        private final LongAdder failedCount = new LongAdder();
+        private final LongAdder errorCount = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder cacheHits = new LongAdder();
+        private final LongAccumulator firstStart = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator lastStop = new LongAccumulator(Math::max, Long.MIN_VALUE);
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram firstByte = new LatencyHistogram();
+
         /**
          * The status of a particular class of attempted operations.
          * <p>
@@ -375,89 +926,481 @@ public class NistDataMirror
         }
 
         /**
-         *  Provides a string representation suitable for use by System.out.print, etc.
+         * Count one more operation that succeeded.  Safe to call from concurrent tasks.
          */
-        @Override
-        public String toString() {
-            return (
-                "Succeeded " + opSucceeded + " times, " +
-                "Failed " + opFailed + " times, " +
-                "Encountered " + errors + " errors");
+        void succeeded() {
+            succeededCount.increment();
         }
-    }
 
-    /**
-     * Communicates the degree of the mirror's task completion, once done.  
-     */
-    public static class CompletionStatus {
         /**
-         * Whether or not the task started (at all).
+         * Count one more operation that failed.  Safe to call from concurrent tasks.
          */
-        public Boolean ran;
+        void failed() {
+            failedCount.increment();
+        }
 
         /**
-         * Whether or not the task completed, partially or completely.
+         * Count one more error encountered.  Safe to call from concurrent tasks.
          */
-        public Boolean completed;
-        
+        void erred() {
+            errorCount.increment();
+        }
+
         /**
-         * The status of the task's NSRL download attempts.
+         * Fill in the public count fields from the counters.
          */
-        public OpGroupStatus nsrlDownloadStat;
-        
+        synchronized void settle() {
+            opSucceeded = succeededCount.sum();
+            opFailed = failedCount.sum();
+            errors = errorCount.sum();
+        }
+
         /**
-         * The status of the task's NVD download attempts.
+         * Return the number of operations that have succeeded so far.
+         *
+         * @return  the count
          */
-        public OpGroupStatus nvdDownloadStat;
-        
+        public long succeededCount() {
+            return succeededCount.sum();
+        }
+
         /**
-         * The status of the task's extraction attempts.
+         * Return the number of operations that have failed so far.
+         *
+         * @return  the count
          */
-        public OpGroupStatus extractStat;
+        public long failedCount() {
+            return failedCount.sum();
+        }
 
-        
         /**
-         * The status of the task's operations over the course of its entire execution.
-         * <p>
-         * This constructor is initialized with zero-ed counts and false <code>ran</code>
-         * and <code>completed</code> values.
+         * Return the number of errors encountered so far.
+         *
+         * @return  the count
          */
-        CompletionStatus() {
-            ran = new Boolean(false);
-            completed = new Boolean(false);
-            nsrlDownloadStat = new OpGroupStatus();
-            nvdDownloadStat = new OpGroupStatus();
-            extractStat = new OpGroupStatus();
+        public long errorCount() {
+            return errorCount.sum();
         }
 
         /**
-         *  Provides a string representation suitable for use by System.out.print, etc.
+         * Return the number of bytes the operations have transferred over the network.
+         *
+         * @return  the count
          */
-        @Override
-        public String toString() {
-            return (
-                "Ran: " + ran + 
-                ", Completed: " + completed + 
-                ", \nNSRL download status: " + nsrlDownloadStat +
-                ", \nNVD download status: " + nvdDownloadStat + 
-                ", \nExtraction status: " + extractStat);
+        public long bytes() {
+            return bytes.sum();
         }
-    }
-    
-
-    /**
-    * An entry point suitable for use as a command line processor.
-    *
-    * @param args   an array of Strings that comprise the command line.
-    */
-    public static void main (String[] args) {
+
+        /**
+         * Return the number of times operations were retried.
+         *
+         * @return  the count
+         */
+        public long retries() {
+            return retries.sum();
+        }
+
+        /**
+         * Return the number of operations that found their file already current, and 
+         * so transferred nothing.
+         *
+         * @return  the count
+         */
+        public long cacheHits() {
+            return cacheHits.sum();
+        }
+
+        /**
+         * Return the time from the start of the first operation to the end of the last
+         * to finish, or to now if one has started and none has yet finished.
+         *
+         * @return  the time in milliseconds, or zero if no operation has started
+         */
+        public long wallMillis() {
+            long start = firstStart.get();
+            if (start == Long.MAX_VALUE) {
+                return 0;
+            }
+            long stop = lastStop.get();
+            return TimeUnit.NANOSECONDS.toMillis(((stop == Long.MIN_VALUE) ? System.nanoTime() : stop) - start);
+        }
+
+        /**
+         * Return the rate at which the operations together transferred bytes over 
+         * their wall time.
+         *
+         * @return  the rate in bytes per second, or zero if no time has passed
+         */
+        public double throughput() {
+            long millis = wallMillis();
+            return (millis == 0) ? 0 : bytes() * 1000.0 / millis;
+        }
+
+        /**
+         * Return the histogram of how long each operation took.
+         *
+         * @return  the histogram
+         */
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        /**
+         * Return the histogram of how long each download took to receive its first 
+         * byte, counting from the start of the download.
+         *
+         * @return  the histogram, which is empty for operations other than downloads
+         */
+        public LatencyHistogram firstByte() {
+            return firstByte;
+        }
+
+        /**
+         * Note that an operation started at the given time.
+         */
+        void started(long nanos) {
+            firstStart.accumulate(nanos);
+        }
+
+        /**
+         * Note that an operation that started at the given time has stopped.
+         */
+        void stopped(long startNanos, long stopNanos) {
+            lastStop.accumulate(stopNanos);
+            latency.record(stopNanos - startNanos);
+        }
+
+        /**
+         *  Provides a string representation suitable for use by System.out.print, etc.
+         */
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(
+                "Succeeded " + succeededCount() + " times, " +
+                "Failed " + failedCount() + " times, " +
+                "Encountered " + errorCount() + " errors");
+            if (bytes() > 0 || retries() > 0 || cacheHits() > 0) {
+                text.append(String.format(", %nTransferred %d bytes in %d ms (%.0f bytes/s), " 
+                    + "retried %d times, %d cache hits", 
+                    bytes(), wallMillis(), throughput(), retries(), cacheHits()));
+            }
+            if (latency.count() > 0) {
+                text.append(String.format(", %nTook %s", latency));
+            }
+            if (firstByte.count() > 0) {
+                text.append(String.format(", %nFirst byte %s", firstByte));
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Communicates how the download of a single file, and the extraction of its
+     * contents, performed.  Its counters may be updated by several threads at once, 
+     * as when a file is downloaded in segments.
+     */
+    public static class FileMetrics {
+        private final OpGroupStatus group;
+        private final RefreshScope scope;
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final AtomicLong firstByteNanos = new AtomicLong(-1);
+        private volatile long startNanos = 0;
+        private volatile long stopNanos = 0;
+        private volatile long extractNanos = -1;
+        private volatile long expectedBytes = -1;
+        private volatile boolean cacheHit = false;
+        private volatile boolean succeeded = false;
+        private volatile long stopMillis = 0;
+
+        /**
+         * The metrics of a file whose download belongs to the given group, to which 
+         * its bytes, retries and timings are also charged.
+         */
+        FileMetrics(OpGroupStatus group, RefreshScope scope) {
+            this.group = group;
+            this.scope = scope;
+        }
+
+        /**
+         * Return the group of files to which the file belongs.
+         *
+         * @return  the group
+         */
+        public RefreshScope scope() {
+            return scope;
+        }
+
+        /**
+         * Indicate whether the file was downloaded, or found current, successfully.
+         *
+         * @return  true if and only if the download has finished successfully
+         */
+        public boolean succeeded() {
+            return succeeded;
+        }
+
+        /**
+         * Return when the download finished.
+         *
+         * @return  the time in milliseconds since the epoch, or zero if it has not 
+         *          finished
+         */
+        public long stopTimeMillis() {
+            return stopMillis;
+        }
+
+        /**
+         * Return the number of bytes of the file transferred over the network, 
+         * including those of attempts that failed.
+         *
+         * @return  the count
+         */
+        public long bytes() {
+            return bytes.sum();
+        }
+
+        /**
+         * Return the number of times the download was retried.
+         *
+         * @return  the count
+         */
+        public long retries() {
+            return retries.sum();
+        }
+
+        /**
+         * Indicate whether the file was already current, and so was not downloaded.
+         *
+         * @return  true if and only if the cached copy was kept
+         */
+        public boolean cacheHit() {
+            return cacheHit;
+        }
+
+        /**
+         * Return how long the download took, including its retries.
+         *
+         * @return  the time in milliseconds, so far if it has not finished
+         */
+        public long wallMillis() {
+            if (startNanos == 0) {
+                return 0;
+            }
+            return TimeUnit.NANOSECONDS.toMillis(((stopNanos == 0) ? System.nanoTime() : stopNanos) - startNanos);
+        }
+
+        /**
+         * Return how long the download took to receive its first byte.
+         *
+         * @return  the time in milliseconds, or -1 if no bytes were received
+         */
+        public long timeToFirstByteMillis() {
+            long nanos = firstByteNanos.get();
+            return (nanos < 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        /**
+         * Return how long the extraction of the file's contents took.
+         *
+         * @return  the time in milliseconds, or -1 if its contents were not extracted
+         */
+        public long extractMillis() {
+            long nanos = extractNanos;
+            return (nanos < 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        /**
+         * Return the rate at which the file's bytes were transferred over the time its
+         * download took.
+         *
+         * @return  the rate in bytes per second, or zero if no time has passed
+         */
+        public double throughput() {
+            long millis = wallMillis();
+            return (millis == 0) ? 0 : bytes() * 1000.0 / millis;
+        }
+
+        void started() {
+            startNanos = System.nanoTime();
+            group.started(startNanos);
+        }
+
+        void received(long count) {
+            bytes.add(count);
+            group.bytes.add(count);
+            if (firstByteNanos.get() < 0) {
+                long elapsed = System.nanoTime() - startNanos;
+                if (firstByteNanos.compareAndSet(-1, elapsed)) {
+                    group.firstByte.record(elapsed);
+                }
+            }
+        }
+
+        /*
+         * The number of bytes the transfer under way expects to receive, counting 
+         * those already received by earlier attempts that it does not repeat.
+         */
+        void expecting(long count) {
+            expectedBytes = (count < 0) ? -1 : count + bytes();
+        }
+
+        void retried() {
+            retries.increment();
+            group.retries.increment();
+        }
+
+        void stopped(boolean success, boolean cached) {
+            stopNanos = System.nanoTime();
+            stopMillis = System.currentTimeMillis();
+            succeeded = success;
+            cacheHit = cached;
+            if (cached) {
+                group.cacheHits.increment();
+            }
+            group.stopped(startNanos, stopNanos);
+        }
+
+        void extracted(long nanos) {
+            extractNanos = nanos;
+        }
+
+        /**
+         *  Provides a string representation suitable for use by System.out.print, etc.
+         */
+        @Override
+        public String toString() {
+            return String.format("%d bytes in %d ms (%.0f bytes/s)%s, retried %d times%s%s",
+                bytes(), wallMillis(), throughput(), 
+                (firstByteNanos.get() < 0) ? "" : ", first byte in " + timeToFirstByteMillis() + " ms",
+                retries(), cacheHit ? ", cached" : "",
+                (extractNanos < 0) ? "" : ", extracted in " + extractMillis() + " ms");
+        }
+    }
+
+    /**
+     * Communicates the degree of the mirror's task completion, once done.  
+     */
+    public static class CompletionStatus {
+        /**
+         * Whether or not the task started (at all).
+         */
+        public Boolean ran;
+
+        /**
+         * Whether or not the task completed, partially or completely.
+         */
+        public Boolean completed;
+        
+        /**
+         * The status of the task's NSRL download attempts.
+         */
+        public OpGroupStatus nsrlDownloadStat;
+        
+        /**
+         * The status of the task's NVD download attempts.
+         */
+        public OpGroupStatus nvdDownloadStat;
+        
+        /**
+         * The status of the task's extraction attempts.
+         */
+        public OpGroupStatus extractStat;
+
+        /**
+         * The status of the task's attempts to place downloaded and extracted files in
+         * additional destination directories.
+         */
+        public OpGroupStatus replicateStat;
+
+        /**
+         * The status of the task's merges of the modified JSON feed into yearly feeds.
+         */
+        public OpGroupStatus mergeStat;
+
+        /**
+         * The digests of the downloaded and extracted files, keyed by the files' paths
+         * relative to the mirror directory, each a map from the digest's name, such as
+         * <code>sha256</code>, to its value in hexadecimal.  Files downloaded or 
+         * extracted by the task were digested as they were written; unchanged files are
+         * reported with the digests recorded when they were.
+         */
+        public Map<String, Map<String, String>> digests;
+
+        /**
+         * How the download of each planned file, and the extraction of its contents,
+         * performed, keyed by the file's name in the mirror directory.
+         */
+        public Map<String, FileMetrics> files;
+        
+        /**
+         * The status of the task's operations over the course of its entire execution.
+         * <p>
+         * This constructor is initialized with zero-ed counts and false <code>ran</code>
+         * and <code>completed</code> values.
+         */
+        CompletionStatus() {
+            ran = new Boolean(false);
+            completed = new Boolean(false);
+            nsrlDownloadStat = new OpGroupStatus();
+            nvdDownloadStat = new OpGroupStatus();
+            extractStat = new OpGroupStatus();
+            replicateStat = new OpGroupStatus();
+            mergeStat = new OpGroupStatus();
+            digests = new ConcurrentSkipListMap<String, Map<String, String>>();
+            files = new ConcurrentSkipListMap<String, FileMetrics>();
+        }
+
+        /**
+         * Fill in the public count fields of each group's status from its counters.
+         */
+        void settle() {
+            nsrlDownloadStat.settle();
+            nvdDownloadStat.settle();
+            extractStat.settle();
+            replicateStat.settle();
+            mergeStat.settle();
+        }
+
+        /**
+         *  Provides a string representation suitable for use by System.out.print, etc.
+         */
+        @Override
+        public String toString() {
+            return (
+                "Ran: " + ran + 
+                ", Completed: " + completed + 
+                ", \nNSRL download status: " + nsrlDownloadStat +
+                ", \nNVD download status: " + nvdDownloadStat + 
+                ", \nExtraction status: " + extractStat +
+                ", \nReplication status: " + replicateStat +
+                ", \nMerge status: " + mergeStat +
+                ", \nDigests recorded: " + digests.size() + " files" +
+                ", \nFiles measured: " + files.size());
+        }
+    }
+    
+
+    /**
+    * An entry point suitable for use as a command line processor.
+    *
+    * @param args   an array of Strings that comprise the command line.
+    */
+    public static void main (String[] args) {
 
         // Set up to direct all progress reporting to the console.
         Annunciator thisAnnunciator = new ConsoleAnnunciator();
 
         // Parse the command line, parsing out the --extract-files and --help subcommands first.
         String aDir = null;
+        boolean daemon = false;
+        boolean jmx = false;
+        File metricsFile = null;
+        int metricsPort = 0;
         Options opts = new Options();
+        // Output directories, with the options given for each, grouped by the options that 
+        // determine how their files are downloaded and extracted.
+        Map<List<Object>, Map<File, Options>> destinations = new LinkedHashMap<List<Object>, Map<File, Options>>();
         for (int aix = 0; aix < args.length; aix++) {
             String thisArg = args[aix].toLowerCase();
             if (thisArg.equals("--extract-files")) {
@@ -496,15 +1439,115 @@ public class NistDataMirror
                         printUsage(-1);
                     }
                 }
+            } else if (thisArg.startsWith("--parallel=")) {
+                try {
+                    opts.parallel = new Integer(thisArg.substring(11));
+                } catch (java.lang.NumberFormatException e) {
+                    printUsage(-1);
+                }
+                if (opts.parallel < 1) {
+                    printUsage(-1);
+                }
+            } else if (thisArg.startsWith("--segments=")) {
+                try {
+                    opts.segments = new Integer(thisArg.substring(11));
+                } catch (java.lang.NumberFormatException e) {
+                    printUsage(-1);
+                }
+                if (opts.segments < 1) {
+                    printUsage(-1);
+                }
+            } else if (thisArg.startsWith("--retries=")) {
+                try {
+                    opts.retries = new Integer(thisArg.substring(10));
+                } catch (java.lang.NumberFormatException e) {
+                    printUsage(-1);
+                }
+                if (opts.retries < 0) {
+                    printUsage(-1);
+                }
+            } else if (thisArg.startsWith("--connect-timeout=")) {
+                opts.connectTimeout = parseSecondsArg(thisArg.substring(18));
+            } else if (thisArg.startsWith("--read-timeout=")) {
+                opts.readTimeout = parseSecondsArg(thisArg.substring(15));
+            } else if (thisArg.startsWith("--stall-rate=")) {
+                opts.stallRate = parseRateArg(thisArg.substring(13));
+            } else if (thisArg.startsWith("--stall-time=")) {
+                opts.stallTime = parseSecondsArg(thisArg.substring(13));
+                if (opts.stallTime < 1) {
+                    printUsage(-1);
+                }
+            } else if (thisArg.equals("--fail-fast")) {
+                opts.failFast = Boolean.TRUE;
+            } else if (thisArg.equals("--merge-modified")) {
+                opts.mergeModified = Boolean.TRUE;
+            } else if (thisArg.startsWith("--digests=")) {
+                try {
+                    opts.digests = Digests.parse(thisArg.substring(10));
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    printUsage(-1);
+                }
+            } else if (thisArg.equals("--daemon")) {
+                daemon = true;
+            } else if (thisArg.equals("--jmx")) {
+                jmx = true;
+            } else if (thisArg.startsWith("--metrics-file=")) {
+                String path = args[aix].substring(15); // Explicitly NOT forced to lowercase
+                if (path.isEmpty()) {
+                    printUsage(-1);
+                }
+                metricsFile = new File(path);
+            } else if (thisArg.startsWith("--metrics-port=")) {
+                try {
+                    metricsPort = Integer.parseInt(thisArg.substring(15));
+                } catch (java.lang.NumberFormatException e) {
+                    printUsage(-1);
+                }
+                if (metricsPort < 1 || metricsPort > 65535) {
+                    printUsage(-1);
+                }
+            } else if (thisArg.startsWith("--refresh-modified=")) {
+                opts.modifiedRefresh = parseIntervalArg(thisArg.substring(19));
+            } else if (thisArg.startsWith("--refresh-yearly=")) {
+                opts.yearlyRefresh = parseIntervalArg(thisArg.substring(17));
+            } else if (thisArg.startsWith("--refresh-nsrl=")) {
+                opts.nsrlRefresh = parseIntervalArg(thisArg.substring(15));
+            } else if (thisArg.startsWith("--upstream=")) {
+                String upstream = args[aix].substring(11); // Explicitly NOT forced to lowercase
+                if (upstream.isEmpty()) {
+                    printUsage(-1);
+                }
+                opts.upstreams.add(upstream);
+            } else if (thisArg.equals("--store")) {
+                opts.store = "";
+            } else if (thisArg.startsWith("--store=")) {
+                opts.store = args[aix].substring(8); // Explicitly NOT forced to lowercase
+                if (opts.store.isEmpty()) {
+                    printUsage(-1);
+                }
+            } else if (thisArg.equals("--adaptive")) {
+                opts.adaptive = Boolean.TRUE;
+            } else if (thisArg.startsWith("--max-rate=")) {
+                opts.maxRate = parseRateArg(thisArg.substring(11));
+            } else if (thisArg.startsWith("--nvd-max-rate=")) {
+                opts.nvdMaxRate = parseRateArg(thisArg.substring(15));
+            } else if (thisArg.startsWith("--nsrl-max-rate=")) {
+                opts.nsrlMaxRate = parseRateArg(thisArg.substring(16));
             } else if (thisArg.startsWith("-")) {
                 System.out.println("Invalid command line argument \"" + thisArg + "\".");
                 printUsage(-2);
                 return;
             } else {
                 aDir = args[aix]; // Explicitly NOT forced to lowercase
-                NistDataMirror mirror = new NistDataMirror(opts, thisAnnunciator, new File(aDir));
-                CompletionStatus result = mirror.get();
-                System.out.println(result);
+                Options dirOpts = new Options(opts);
+                List<Object> artifacts = artifactKey(dirOpts);
+                Map<File, Options> dirs = destinations.get(artifacts);
+                if (dirs == null) {
+                    dirs = new LinkedHashMap<File, Options>();
+                    destinations.put(artifacts, dirs);
+                }
+                dirs.put(new File(aDir), dirOpts);
             }
         }
         if (aDir == null) {
@@ -513,37 +1556,315 @@ public class NistDataMirror
             printUsage(-3);
             return;
         }
+        if (metricsPort > 0 && !daemon) {
+            // A single run would exit before Prometheus could scrape the metrics.
+            System.out.println("The --metrics-port option requires --daemon; use --metrics-file for single runs.");
+            printUsage(-1);
+            return;
+        }
+        // Directories whose files are downloaded and extracted alike are served by one 
+        // mirror, which downloads and extracts each file that any of them selects once, 
+        // into the directory that selects the most, and then places it in every directory
+        // that selects it.  That directory's options govern how the mirror downloads and
+        // when it refreshes.
+        List<NistDataMirror> mirrors = new ArrayList<NistDataMirror>();
+        for (Map<File, Options> dirs : destinations.values()) {
+            File primary = primaryDestination(dirs);
+            NistDataMirror mirror = new NistDataMirror(dirs.get(primary), thisAnnunciator, primary);
+            for (Map.Entry<File, Options> aReplica : dirs.entrySet()) {
+                if (aReplica.getKey() != primary) {
+                    mirror.addDestination(aReplica.getKey(), aReplica.getValue().nvdOpt, aReplica.getValue().nsrlOpt);
+                }
+            }
+            if (mirror.nvdIds() != dirs.get(primary).nvdOpt.id() 
+                    || mirror.nsrlIds() != dirs.get(primary).nsrlOpt.id()) {
+                thisAnnunciator.announce("No directory selects every file downloaded for " + dirs.keySet() 
+                    + ", so " + primary + " also holds the files the others select.");
+            }
+            mirrors.add(mirror);
+            if (jmx) {
+                try {
+                    thisAnnunciator.announce("Monitoring " + primary + " through JMX as " + mirror.registerMBean());
+                } catch (JMException e) {
+                    thisAnnunciator.announce("Could not register an MBean for " + primary + ": " + e.getMessage());
+                }
+            }
+        }
+        // Size the runtime's connection cache, which all the mirrors share, before any
+        // of them connects.
+        int connectionsPerHost = 0;
+        for (NistDataMirror mirror : mirrors) {
+            connectionsPerHost += mirror.connectionsPerHost();
+        }
+        MirrorHttpClient.setMaxConnectionsPerHost(connectionsPerHost);
+        List<PrometheusMetrics> allMetrics = new ArrayList<PrometheusMetrics>();
+        for (NistDataMirror mirror : mirrors) {
+            allMetrics.add(mirror.metrics());
+        }
+        if (metricsFile != null) {
+            // Rewrite the file as each refresh stops, so that it always covers every mirror.
+            final File textFile = metricsFile;
+            MirrorListener exporter = new MirrorListener() {
+                @Override
+                public void refreshed(CompletionStatus status) {
+                    try {
+                        PrometheusMetrics.writeTextFile(textFile, allMetrics);
+                    } catch (IOException e) {
+                        thisAnnunciator.announce("Could not write metrics to " + textFile + ": " + e.getMessage());
+                    }
+                }
+            };
+            for (NistDataMirror mirror : mirrors) {
+                mirror.setListener(exporter);
+            }
+        }
+        if (daemon) {
+            HttpServer metricsServer = null;
+            if (metricsPort > 0) {
+                try {
+                    metricsServer = PrometheusMetrics.serve(metricsPort, allMetrics);
+                    thisAnnunciator.announce("Serving metrics at http://localhost:" + metricsPort 
+                        + PrometheusMetrics.METRICS_PATH);
+                } catch (IOException e) {
+                    thisAnnunciator.announce("Could not serve metrics on port " + metricsPort + ": " + e.getMessage());
+                }
+            }
+            runDaemon(mirrors, thisAnnunciator, metricsServer);
+            return;
+        }
+        for (NistDataMirror mirror : mirrors) {
+            CompletionStatus result = mirror.get();
+            System.out.println(result);
+        }
     }
 
     // Private implementation
     
-    private static void printUsage(int exitStatus) {
-        System.out.println("Usage: java NistDataMirror [options] outputDir [newoptions] outputDir ...");
-        System.out.println("         where options include:");
-        System.out.println("           --nsrl=(modern|legacy|android|ios|all|none)");
-        System.out.println("               Choose National Software Reference Library files to download.");
-        System.out.println("           --nvd=(xml|json|all|none)");
-        System.out.println("               Choose National Vulnerability Database files to download.");
-        System.out.println("           --extract=(max|<numeric depth of recursive extractions>)");
-        System.out.println("               Extract contents of downloaded UDF (DVD) and ZIP archives and");
-        System.out.println("               GZip-compressed files recursively to a maximum of the indicated");
-        System.out.println("               number of times.");
-        System.out.println("                 --extract=0:    extracts no contents from the downloaded files,");
-        System.out.println("                 --extract=1:    extracts the contents of all downloaded files,");
-        System.out.println("                                 but does not extract any further.");
-        System.out.println("                 --extract=max:  recursively extracts all files, both from");
-        System.out.println("                                 downloaded and extracted files.");
-        System.out.println("         Default options are --nvd=all --nsrl=none --extract=1");
-        System.out.println("");
-        System.out.println("       --or--");
-        System.out.println("");
-        System.out.println("       java NistDataMirror --extract-files (<args>|-h):  invokes extraction only.");
-        System.out.println("              Use \"--extract-files -h\" for options.");
-        System.out.println("");
-        System.out.println("       --or--");
-        System.out.println("");
-        System.out.println("       java NistDataMirror --help | -h:  Prints this advice.");
-
+    /*
+     * Keep refreshing the mirrors on their schedules until the process is told to stop,
+     * each mirror with a scheduler of its own so that one mirror's long refresh does
+     * not hold up another's.  On shutdown, no further refreshes start, and those in
+     * progress get a grace period to finish before they are interrupted; interrupted 
+     * downloads resume on the next start.  The metrics server, if any, stops last.
+     */
+    private static void runDaemon(List<NistDataMirror> mirrors, Annunciator an, HttpServer metricsServer) {
+        List<ScheduledExecutorService> schedulers = new ArrayList<ScheduledExecutorService>();
+        for (NistDataMirror aMirror : mirrors) {
+            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(RefreshScope.values().length);
+            aMirror.schedule(scheduler);
+            schedulers.add(scheduler);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            an.announce("Shutting down, waiting for refreshes in progress to finish");
+            for (ScheduledExecutorService aScheduler : schedulers) {
+                aScheduler.shutdown();
+            }
+            long deadline = System.currentTimeMillis() + DAEMON_SHUTDOWN_GRACE_MS;
+            try {
+                for (ScheduledExecutorService aScheduler : schedulers) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (!aScheduler.awaitTermination(Math.max(0, remaining), TimeUnit.MILLISECONDS)) {
+                        aScheduler.shutdownNow();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (metricsServer != null) {
+                metricsServer.stop(0);
+            }
+        }));
+        try {
+            for (ScheduledExecutorService aScheduler : schedulers) {
+                aScheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Parse an interval given on the command line in minutes, or in minutes, hours or 
+     * days when suffixed by m, h or d.
+     */
+    private static Long parseIntervalArg(String anInterval) {
+        String digits = anInterval.trim();
+        long minutesPer = 1;
+        if (digits.endsWith("h")) {
+            minutesPer = 60;
+        } else if (digits.endsWith("d")) {
+            minutesPer = 24 * 60;
+        }
+        if (digits.endsWith("m") || minutesPer > 1) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        long minutes = -1;
+        try {
+            minutes = Long.parseLong(digits) * minutesPer;
+        } catch (java.lang.NumberFormatException e) {
+            printUsage(-1);
+        }
+        if (minutes < 0) {
+            printUsage(-1);
+        }
+        return new Long(minutes);
+    }
+
+    private static Long parseRateArg(String aRate) {
+        long rate = -1;
+        try {
+            rate = Throttle.parseRate(aRate);
+        } catch (java.lang.NumberFormatException e) {
+            printUsage(-1);
+        }
+        if (rate < 0) {
+            printUsage(-1);
+        }
+        return new Long(rate);
+    }
+
+    private static Integer parseSecondsArg(String aCount) {
+        Integer seconds = null;
+        try {
+            seconds = new Integer(aCount);
+        } catch (java.lang.NumberFormatException e) {
+            printUsage(-1);
+        }
+        if (seconds < 0) {
+            printUsage(-1);
+        }
+        return seconds;
+    }
+
+    /*
+     * The options that determine how a directory's files are downloaded and extracted,
+     * and so whether one mirror can download and extract them for several directories.
+     * The files a directory selects, and how and when they are downloaded, do not.
+     */
+    private static List<Object> artifactKey(Options dirOpts) {
+        return Arrays.asList(dirOpts.recursion, dirOpts.digests, dirOpts.upstreams, dirOpts.store, 
+            dirOpts.mergeModified);
+    }
+
+    /*
+     * The directory into which a mirror serving several directories downloads: the first
+     * that selects every file any of the others selects or, failing one, the first.
+     */
+    private static File primaryDestination(Map<File, Options> dirs) {
+        for (Map.Entry<File, Options> aCandidate : dirs.entrySet()) {
+            int nvdIds = aCandidate.getValue().nvdOpt.id();
+            int nsrlIds = aCandidate.getValue().nsrlOpt.id();
+            boolean selectsAll = true;
+            for (Options other : dirs.values()) {
+                selectsAll &= (other.nvdOpt.id() & ~nvdIds) == 0 && (other.nsrlOpt.id() & ~nsrlIds) == 0;
+            }
+            if (selectsAll) {
+                return aCandidate.getKey();
+            }
+        }
+        return dirs.keySet().iterator().next();
+    }
+
+    private static void printUsage(int exitStatus) {
+        System.out.println("Usage: java NistDataMirror [options] outputDir [newoptions] outputDir ...");
+        System.out.println("         where options include:");
+        System.out.println("           --nsrl=(modern|legacy|android|ios|all|none)");
+        System.out.println("               Choose National Software Reference Library files to download.");
+        System.out.println("           --nvd=(xml|json|all|none)");
+        System.out.println("               Choose National Vulnerability Database files to download.");
+        System.out.println("           --extract=(max|<numeric depth of recursive extractions>)");
+        System.out.println("               Extract contents of downloaded UDF (DVD) and ZIP archives and");
+        System.out.println("               GZip-compressed files recursively to a maximum of the indicated");
+        System.out.println("               number of times.");
+        System.out.println("                 --extract=0:    extracts no contents from the downloaded files,");
+        System.out.println("                 --extract=1:    extracts the contents of all downloaded files,");
+        System.out.println("                                 but does not extract any further.");
+        System.out.println("                 --extract=max:  recursively extracts all files, both from");
+        System.out.println("                                 downloaded and extracted files.");
+        System.out.println("           --parallel=<number of simultaneous downloads>");
+        System.out.println("               Download up to the indicated number of files at the same time.");
+        System.out.println("               Extraction of downloaded files proceeds while other files are");
+        System.out.println("               still being downloaded.");
+        System.out.println("           --segments=<number of connections per large file>");
+        System.out.println("               Download large files, such as the NSRL ISO images, as the");
+        System.out.println("               indicated number of byte ranges fetched at the same time.");
+        System.out.println("           --retries=<number of further attempts>");
+        System.out.println("               Retry a failed download up to the indicated number of times,");
+        System.out.println("               waiting exponentially longer between attempts.");
+        System.out.println("           --connect-timeout=<seconds>  --read-timeout=<seconds>");
+        System.out.println("               Abandon a connection that cannot be established, or that");
+        System.out.println("               delivers no data, within the indicated time.  Zero waits forever.");
+        System.out.println("           --stall-rate=<bytes per second, optionally suffixed by K, M or G>");
+        System.out.println("           --stall-time=<seconds>");
+        System.out.println("               Deem a download stalled when it arrives more slowly than the");
+        System.out.println("               stall rate for the stall time, and resume it over a new");
+        System.out.println("               connection.  A stall rate of zero disables the check.");
+        System.out.println("           --fail-fast");
+        System.out.println("               Stop at the first file that cannot be downloaded, rather than");
+        System.out.println("               recording the failure and continuing with the remaining files.");
+        System.out.println("           --adaptive");
+        System.out.println("               Adjust the number of simultaneous downloads to the observed");
+        System.out.println("               throughput and server load, up to the --parallel number.");
+        System.out.println("           --max-rate=<bytes per second, optionally suffixed by K, M or G>");
+        System.out.println("               Limit the rate of all downloads taken together, for instance");
+        System.out.println("               --max-rate=50M.  Zero sets no limit.");
+        System.out.println("           --nvd-max-rate=<rate>  --nsrl-max-rate=<rate>");
+        System.out.println("               Limit the rate of NVD or NSRL downloads within the overall limit.");
+        System.out.println("           --upstream=<URL or directory>");
+        System.out.println("               Seek each file from the indicated source, such as another");
+        System.out.println("               mirror, before NIST.  Repeat to give several sources, which");
+        System.out.println("               are tried in order; a source lacking a file falls through to");
+        System.out.println("               the next, and finally to NIST.");
+        System.out.println("           --store[=<directory>]");
+        System.out.println("               Keep each distinct downloaded or extracted file once in a");
+        System.out.println("               content-addressed store and hard-link the mirror's files to it.");
+        System.out.println("               Without a directory, the store is kept with the mirror's own");
+        System.out.println("               state; a named directory may be shared by several mirrors on");
+        System.out.println("               the same file system.");
+        System.out.println("           --merge-modified");
+        System.out.println("               Merge the CVEs of the modified JSON feed into the yearly JSON");
+        System.out.println("               feeds already downloaded, keeping them current between full");
+        System.out.println("               downloads of them.  With --daemon, pair with a long");
+        System.out.println("               --refresh-yearly, which reconciles them with NIST's.");
+        System.out.println("           --digests=<list of sha256, sha1 and md5>");
+        System.out.println("               Record the listed digests of every downloaded and extracted");
+        System.out.println("               file, computed as the file is written, for instance");
+        System.out.println("               --digests=sha256,md5.  SHA-256 digests are always recorded.");
+        System.out.println("           --daemon");
+        System.out.println("               Keep running, refreshing each group of files on its own schedule,");
+        System.out.println("               until stopped.");
+        System.out.println("           --jmx");
+        System.out.println("               Register MBeans with which JMX clients, such as jconsole, can");
+        System.out.println("               watch the downloads and extractions as they run.");
+        System.out.println("           --metrics-file=<path>");
+        System.out.println("               After each refresh, write metrics of the mirrors in the Prometheus");
+        System.out.println("               text format to the file, for node_exporter's textfile collector.");
+        System.out.println("               Name the file with a .prom suffix.");
+        System.out.println("           --metrics-port=<port>");
+        System.out.println("               With --daemon, serve the same metrics over HTTP at /metrics on");
+        System.out.println("               the port, for Prometheus to scrape.  Requires --daemon.");
+        System.out.println("           --refresh-modified=<interval>  --refresh-yearly=<interval>");
+        System.out.println("           --refresh-nsrl=<interval>");
+        System.out.println("               With --daemon, how often to refresh the modified NVD feeds, the");
+        System.out.println("               yearly NVD feeds and the NSRL hash sets, in minutes or suffixed");
+        System.out.println("               by m, h or d.  Zero stops the group from being refreshed.");
+        System.out.println("         Default options are --nvd=all --nsrl=none --extract=1 --parallel=1 --segments=1");
+        System.out.println("         --retries=3 --connect-timeout=30 --read-timeout=60 --stall-rate=1K --stall-time=60");
+        System.out.println("         --refresh-modified=15m --refresh-yearly=1d --refresh-nsrl=7d");
+        System.out.println("         Output directories given the same --extract, --digests, --upstream, --store and");
+        System.out.println("         --merge-modified options share their downloads: each file is downloaded once, into");
+        System.out.println("         the directory that selects the most files, whose other options then apply, and");
+        System.out.println("         placed in every directory that selects it.");
+        System.out.println("");
+        System.out.println("       --or--");
+        System.out.println("");
+        System.out.println("       java NistDataMirror --extract-files (<args>|-h):  invokes extraction only.");
+        System.out.println("              Use \"--extract-files -h\" for options.");
+        System.out.println("");
+        System.out.println("       --or--");
+        System.out.println("");
+        System.out.println("       java NistDataMirror --help | -h:  Prints this advice.");
+
         if (exitStatus != 0)
             System.exit(exitStatus);
     }
@@ -561,6 +1882,30 @@ public class NistDataMirror
     private static final String CVE_JSON_10_MODIFIED_URL = CVE_JSON_ROOT + "1.0/nvdcve-1.0-modified.json.gz";
     private static final String CVE_JSON_10_BASE_URL = CVE_JSON_ROOT + "1.0/nvdcve-1.0-%d.json.gz";
 
+    /**
+     * The smallest file, in bytes, that the mirror splits into byte ranges when 
+     * more than one download segment is requested.
+     */
+    public static final long SEGMENTED_DOWNLOAD_THRESHOLD = 64L * 1024 * 1024;
+
+    /**
+     * The suffix appended to the name of a file while it is being downloaded.
+     */
+    public static final String PART_SUFFIX = ".part";
+
+    private static final String META_SUFFIX = ".meta";
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final String BLOB_SUFFIX = ".blob";
+    private static final String EXTRACT_SUFFIX = ".extract";
+    private static final String MERGED_SUFFIX = ".merged";
+    private static final String DIVERGED_SUFFIX = ".diverged";
+    private static final String DIGESTS_SUFFIX = ".digests";
+    private static final int META_FETCH_THREADS = 8;
+    private static final long RETRY_BASE_DELAY_MS = 1000;
+    private static final long RETRY_MAX_DELAY_MS = 60 * 1000;
+    private static final long DAEMON_SHUTDOWN_GRACE_MS = 30 * 1000;
+    private static final String MBEAN_DOMAIN = "us.springett.nistdatamirror";
+
     private static final int START_YEAR = 2002;
     private static final int END_YEAR = Calendar.getInstance().get(Calendar.YEAR);
 
@@ -575,141 +1920,1922 @@ public class NistDataMirror
 
     private Annunciator annunciator = new ConsoleAnnunciator(); // Annunciator.defaultAnnunciator();
     private Options options = new Options();
-    private CompletionStatus status = new CompletionStatus();
+    private volatile CompletionStatus status = new CompletionStatus();
     private File destination = null;
+    private MirrorHttpClient http;
+    private List<Replica> replicas = new ArrayList<Replica>();
+    private Throttle overallThrottle;
+    private Throttle nvdThrottle;
+    private volatile AdaptiveConcurrency concurrency = null;
+    private Throttle nsrlThrottle;
+    private ContentStore store = null;
+    private Upstreams upstreams;
+    private final ReentrantLock runLock = new ReentrantLock();
+    private volatile MirrorListener listener = MirrorListener.NONE;
+    private volatile MirrorListener defaultListener = MirrorListener.NONE;
+    private PrometheusMetrics metrics;
+    // What the current refresh is doing, for monitoring.
+    private ObjectName mbeanName = null;
+    private volatile List<DownloadTask> currentPlan = new ArrayList<DownloadTask>();
+    private volatile ExecutorService downloadPool = null;
+    private volatile ExecutorService nsrlPool = null;
+    private volatile ExecutorService extractPool = null;
+    private final Set<String> extracting = ConcurrentHashMap.newKeySet();
+    private volatile long runStartNanos = 0;
+    private volatile long runStopNanos = 0;
 
 
     // private methods
 
-    private void getNsrlFiles(File outputDir) throws IOException {
-        if ((options.nsrlOpt.id() & NsrlOption.MODERN.id()) != 0) {
-            doDownload(NSRL_ISO_CURRENT_MODERN, outputDir, status.nsrlDownloadStat, status.extractStat);
+    /*
+     * Refresh the groups of files, with the run lock held, telling the listener of
+     * each file as it becomes available.
+     */
+    private CompletionStatus refreshLocked(Set<RefreshScope> scopes, MirrorListener aListener) {
+        status = new CompletionStatus();
+        listener = aListener;
+        currentPlan = new ArrayList<DownloadTask>();
+        runStartNanos = System.nanoTime();
+        runStopNanos = 0;
+        long startMillis = System.currentTimeMillis();
+        try {
+            return refreshLocked(scopes);
+        } finally {
+            runStopNanos = System.nanoTime();
+            status.settle();
+            listener = MirrorListener.NONE;
+            metrics.record(status, startMillis, System.currentTimeMillis());
+            try {
+                aListener.refreshed(status);
+            } catch (RuntimeException e) {
+                annunciator.announce("Listener failed on completion of refresh: " + e);
+            }
+        }
+    }
+
+    private CompletionStatus refreshLocked(Set<RefreshScope> scopes) {
+        File where;
+        if (destination == null) {
+            String whereStr = System.getProperty("user.dir");
+            if (whereStr == null) {
+                final String msg = "Could not determine the caller's current working directory.";
+                annunciator.announce(msg);
+                throw new Error(msg);
+            }
+            where = FileSystems.getDefault().getPath(whereStr).toAbsolutePath().toFile();
+        } else {
+            where = destination;
+        }
+        Date startDate = new Date();
+        Date stopDate = null;
+        this.status.ran = true;
+        this.status.completed  = false;
+        try {
+            checkOutputDir(where);
+            store = openStore(where);
+            annunciator.announce("Downloading files at " + startDate);
+            List<DownloadTask> plan = new ArrayList<DownloadTask>();
+            planNvdFiles(plan, scopes, nvdIds());
+            planNsrlFiles(plan, scopes, nsrlIds());
+            fetchNvdMeta(plan);
+            checkPlanSpace(where, plan);
+            runPlan(where, plan);
+            if (options.mergeModified && scopes.contains(RefreshScope.MODIFIED)
+                    && (nvdIds() & NvdOption.JSON.id()) != 0) {
+                mergeModifiedFeed(where, scopes.contains(RefreshScope.YEARLY));
+            }
+            if (!replicas.isEmpty()) {
+                replicate(where, plan, scopes);
+            }
+            pruneStore();
+            this.status.completed = true;
+            stopDate = new Date();
+            annunciator.announce("Downloads complete at " + stopDate);
+        } catch (IOException e) {
+            stopDate = new Date();
+            annunciator.announce("Downloads aborted at " + stopDate);
+        }
+        return status;
+    }
+
+    /*
+     * The directory into which the mirror downloads files.
+     */
+    private String destinationPath() {
+        return (destination != null) ? destination.getAbsolutePath() 
+            : String.valueOf(System.getProperty("user.dir"));
+    }
+
+    /*
+     * The MBean through which the mirror is monitored.  It reads the state of the 
+     * current refresh as the refresh updates it, without locking.
+     */
+    private class Monitor implements NistDataMirrorMXBean {
+        @Override
+        public boolean isRunning() {
+            return runLock.isLocked();
+        }
+
+        @Override
+        public String getDestination() {
+            return destinationPath();
+        }
+
+        @Override
+        public long getElapsedSeconds() {
+            long start = runStartNanos;
+            long stop = runStopNanos;
+            return (start == 0) ? 0 : TimeUnit.NANOSECONDS.toSeconds(((stop == 0) ? System.nanoTime() : stop) - start);
+        }
+
+        @Override
+        public String[] getActiveDownloads() {
+            List<String> active = new ArrayList<String>();
+            for (DownloadTask aTask : currentPlan) {
+                FileMetrics metrics = aTask.metrics;
+                if (metrics.startNanos != 0 && metrics.stopNanos == 0) {
+                    long expected = expectedBytes(aTask);
+                    active.add(String.format("%s: %d of %s bytes (%.0f bytes/s)", aTask.fileName(), 
+                        metrics.bytes(), (expected < 0) ? "?" : String.valueOf(expected), metrics.throughput()));
+                }
+            }
+            return active.toArray(new String[active.size()]);
+        }
+
+        @Override
+        public String[] getActiveExtractions() {
+            return extracting.toArray(new String[0]);
+        }
+
+        @Override
+        public int getPlannedFiles() {
+            return currentPlan.size();
+        }
+
+        @Override
+        public int getFinishedFiles() {
+            int finished = 0;
+            for (DownloadTask aTask : currentPlan) {
+                finished += (aTask.metrics.stopNanos != 0) ? 1 : 0;
+            }
+            return finished;
+        }
+
+        @Override
+        public int getQueuedDownloads() {
+            return queueDepth(downloadPool) + queueDepth(nsrlPool);
+        }
+
+        @Override
+        public int getQueuedExtractions() {
+            return queueDepth(extractPool);
+        }
+
+        @Override
+        public long getBytesDone() {
+            CompletionStatus current = status;
+            return current.nvdDownloadStat.bytes() + current.nsrlDownloadStat.bytes();
+        }
+
+        @Override
+        public long getBytesRemaining() {
+            long remaining = 0;
+            for (DownloadTask aTask : currentPlan) {
+                long expected = expectedBytes(aTask);
+                if (aTask.metrics.stopNanos == 0 && expected > 0) {
+                    remaining += Math.max(0, expected - aTask.metrics.bytes());
+                }
+            }
+            return remaining;
+        }
+
+        @Override
+        public double getThroughput() {
+            long start = runStartNanos;
+            long stop = runStopNanos;
+            long elapsed = (start == 0) ? 0 : ((stop == 0) ? System.nanoTime() : stop) - start;
+            return (elapsed <= 0) ? 0 : getBytesDone() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        }
+
+        @Override
+        public long getNvdDownloadsSucceeded() {
+            return status.nvdDownloadStat.succeededCount();
+        }
+
+        @Override
+        public long getNvdDownloadsFailed() {
+            return status.nvdDownloadStat.failedCount();
+        }
+
+        @Override
+        public long getNsrlDownloadsSucceeded() {
+            return status.nsrlDownloadStat.succeededCount();
+        }
+
+        @Override
+        public long getNsrlDownloadsFailed() {
+            return status.nsrlDownloadStat.failedCount();
+        }
+
+        @Override
+        public long getExtractionsSucceeded() {
+            return status.extractStat.succeededCount();
+        }
+
+        @Override
+        public long getExtractionsFailed() {
+            return status.extractStat.failedCount();
+        }
+
+        @Override
+        public long getReplicationsSucceeded() {
+            return status.replicateStat.succeededCount();
         }
-        if ((options.nsrlOpt.id() & NsrlOption.LEGACY.id()) != 0) {
-            doDownload(NSRL_ISO_CURRENT_LEGACY, outputDir, status.nsrlDownloadStat, status.extractStat);
+
+        @Override
+        public long getMergesSucceeded() {
+            return status.mergeStat.succeededCount();
+        }
+
+        @Override
+        public long getErrors() {
+            CompletionStatus current = status;
+            return current.nvdDownloadStat.errorCount() + current.nsrlDownloadStat.errorCount()
+                + current.extractStat.errorCount() + current.replicateStat.errorCount()
+                + current.mergeStat.errorCount();
+        }
+
+        @Override
+        public long getRetries() {
+            CompletionStatus current = status;
+            return current.nvdDownloadStat.retries() + current.nsrlDownloadStat.retries();
         }
-        if ((options.nsrlOpt.id() & NsrlOption.ANDROID.id()) != 0) {
-            doDownload(NSRL_ISO_CURRENT_ANDROID, outputDir, status.nsrlDownloadStat, status.extractStat);
+
+        @Override
+        public long getCacheHits() {
+            CompletionStatus current = status;
+            return current.nvdDownloadStat.cacheHits() + current.nsrlDownloadStat.cacheHits();
+        }
+
+        @Override
+        public String getStatus() {
+            return status.toString();
+        }
+
+        /*
+         * The size of a planned download, as its transfer or its meta file gives it, 
+         * or -1 if it is not yet known.
+         */
+        private long expectedBytes(DownloadTask aTask) {
+            long expected = aTask.metrics.expectedBytes;
+            if (expected < 0 && aTask.meta != null) {
+                expected = aTask.meta.gzSize();
+            }
+            return expected;
         }
-        if ((options.nsrlOpt.id() & NsrlOption.IOS.id()) != 0) {
-            doDownload(NSRL_ISO_CURRENT_IOS, outputDir, status.nsrlDownloadStat, status.extractStat);
+
+        private int queueDepth(ExecutorService aPool) {
+            return (aPool instanceof ThreadPoolExecutor) ? ((ThreadPoolExecutor) aPool).getQueue().size() : 0;
         }
     }
 
+    /*
+     * The future of a refresh run by refreshAsync(), which remembers the thread
+     * running the refresh so that cancelling the future can interrupt it.
+     */
+    private class AsyncRefresh extends CompletableFuture<CompletionStatus> {
+        private Thread runner = null;
 
-    private void getNvdFiles(File outputDir) throws IOException {
-        if ((options.nvdOpt.id() & NvdOption.XML.id()) != 0) {
-            doDownload(CVE_XML_12_MODIFIED_URL, outputDir, status.nvdDownloadStat, status.extractStat);
-            doDownload(CVE_XML_20_MODIFIED_URL, outputDir, status.nvdDownloadStat, status.extractStat);
-            for (int i=START_YEAR; i<=END_YEAR; i++) {
-                String cve12BaseUrl = CVE_XML_12_BASE_URL.replace("%d", String.valueOf(i));
-                String cve20BaseUrl = CVE_XML_20_BASE_URL.replace("%d", String.valueOf(i));
-                doDownload(cve12BaseUrl, outputDir, status.nvdDownloadStat, status.extractStat);
-                doDownload(cve20BaseUrl, outputDir, status.nvdDownloadStat, status.extractStat);
+        void run(Set<RefreshScope> scopes, MirrorListener aListener) {
+            synchronized (this) {
+                if (isDone()) {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                runLock.lockInterruptibly();
+                try {
+                    complete(refreshLocked(scopes, aListener));
+                } finally {
+                    runLock.unlock();
+                }
+            } catch (InterruptedException e) {
+                // cancelled while waiting for another refresh to finish
+                cancel(false);
+            } catch (RuntimeException | Error e) {
+                completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    if (isCancelled()) {
+                        // the interrupt was meant for this refresh, not the executor
+                        Thread.interrupted();
+                    }
+                }
             }
         }
-        if ((options.nvdOpt.id() & NvdOption.JSON.id()) != 0) {
-            doDownload(CVE_JSON_10_MODIFIED_URL, outputDir, status.nvdDownloadStat, status.extractStat);
-            for (int i=START_YEAR; i<=END_YEAR; i++) {
-                String cveJsonBaseUrl = CVE_JSON_10_BASE_URL.replace("%d", String.valueOf(i));
-                doDownload(cveJsonBaseUrl, outputDir, status.nvdDownloadStat, status.extractStat);
+
+        @Override
+        public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mayInterruptIfRunning && runner != null) {
+                runner.interrupt();
             }
+            return cancelled;
         }
     }
 
-    private void checkOutputDir(File outputDir) throws IOException {
-        if ( ! outputDir.exists()) {
-          outputDir.mkdirs();
+    private static class DownloadTask {
+        final String url;
+        final OpGroupStatus downloadStat;
+        final String metaUrl;
+        final RefreshScope scope;
+        volatile NvdMeta meta = null;
+        volatile File inflated = null;
+        volatile String blob = null;
+        volatile Map<String, String> digests = null;
+        volatile Map<String, String> inflatedDigests = null;
+        volatile boolean fetched = false;
+        final FileMetrics metrics;
+
+        DownloadTask(String url, OpGroupStatus downloadStat, RefreshScope scope) {
+            this(url, downloadStat, null, scope);
         }
-        if (!outputDir.exists() || !outputDir.isDirectory()) {
-            throw new IOException("Could neither find nor create output directory " + outputDir + ".");
+
+        DownloadTask(String url, OpGroupStatus downloadStat, String metaUrl, RefreshScope scope) {
+            this.url = url;
+            this.downloadStat = downloadStat;
+            this.metaUrl = metaUrl;
+            this.scope = scope;
+            this.metrics = new FileMetrics(downloadStat, scope);
+        }
+
+        /*
+         * The name under which the file is stored in a mirror directory.
+         */
+        String fileName() {
+            return url.substring(url.lastIndexOf('/') + 1);
         }
     }
 
-    private long checkHead(String nistUrl) throws IOException {
-        try {
-            URL url = new URL(nistUrl);
-            HttpURLConnection connection = (HttpURLConnection)url.openConnection();
-            connection.setRequestMethod("HEAD");
-            connection.connect();
-            connection.getInputStream();
-            return connection.getContentLengthLong();
-        } catch (IOException e) {
-            annunciator.announce("Failed to determine content length");
-            throw new IOException(e);
+    /*
+     * The NVD files that the mirror downloads: those that any of its directories selects.
+     */
+    private int nvdIds() {
+        int ids = options.nvdOpt.id();
+        for (Replica aReplica : replicas) {
+            ids |= aReplica.nvdOpt.id();
         }
+        return ids;
     }
 
-    private void downloadUsingHttp(URL url, long expectedLength, File outFile) throws IOException {
-        BufferedInputStream bis = null;
-        BufferedOutputStream bos = null;
-        try {
-            URLConnection connection = url.openConnection();
-            annunciator.announce("Downloading " + url.toExternalForm());
-            bis = new BufferedInputStream(connection.getInputStream());
-            bos = new BufferedOutputStream(new FileOutputStream(outFile));
-            StreamUtil.streamUntilEof(bis, bos, expectedLength, annunciator);
-        } finally {
-            close(bis);
-            close(bos);
+    /*
+     * The NSRL files that the mirror downloads: those that any of its directories selects.
+     */
+    private int nsrlIds() {
+        int ids = options.nsrlOpt.id();
+        for (Replica aReplica : replicas) {
+            ids |= aReplica.nsrlOpt.id();
         }
+        return ids;
     }
 
-    private void doDownload(String nistUrl, File outputDir, OpGroupStatus downloadStat, OpGroupStatus extractStat) throws IOException {
-        File outFile = null;
-        String filename = null;
-        URL url;
-        try {
-            url = new URL(nistUrl);
-        } catch (java.net.MalformedURLException e) {
-            annunciator.announce("Could not download file due to an internal error (malformed URL).");
-            downloadStat.errors++;
-            downloadStat.opFailed++;
-            throw e;
+    /*
+     * A further directory in which the mirror places the files of its own selection.
+     */
+    private class Replica {
+        final File dir;
+        final NvdOption nvdOpt;
+        final NsrlOption nsrlOpt;
+
+        Replica(File dir, NvdOption nvdOpt, NsrlOption nsrlOpt) {
+            this.dir = dir;
+            this.nvdOpt = nvdOpt;
+            this.nsrlOpt = nsrlOpt;
         }
-        try {
-            filename = url.getFile();
-            filename = filename.substring(filename.lastIndexOf('/') + 1);
-            outFile = new File(outputDir, filename).getCanonicalFile();
-            annunciator.announce("Looking for file " + outFile + " downloaded from " + nistUrl + ".");
 
-            long fileLengthFromHTTPHeader = checkHead(nistUrl);
-            if (outFile.exists()) {
-                if (fileLengthFromHTTPHeader == outFile.length()) {
-                    annunciator.announce("Using cached version of " + filename);
-                } else {
-                    if (outFile.getUsableSpace() < fileLengthFromHTTPHeader) {
-                        throw new IOException("Insufficient space for file.");
-                    }
-                    annunciator.announce("Downloading fresh copy of " + filename);
-                    outFile.delete();
-                    downloadUsingHttp(url, fileLengthFromHTTPHeader, outFile);
-                }
-            } else {
-                annunciator.announce("Downloading initial copy of " + outFile + " from " + nistUrl + ".");
-                downloadUsingHttp(url, fileLengthFromHTTPHeader, outFile);
+        /*
+         * The names of the files the directory selects among those a refresh of the 
+         * given scopes downloads.
+         */
+        Set<String> fileNames(Set<RefreshScope> scopes) {
+            List<DownloadTask> selection = new ArrayList<DownloadTask>();
+            planNvdFiles(selection, scopes, nvdOpt.id());
+            planNsrlFiles(selection, scopes, nsrlOpt.id());
+            Set<String> names = new HashSet<String>();
+            for (DownloadTask aTask : selection) {
+                names.add(aTask.fileName());
             }
-        } catch (IOException e) {
-            annunciator.announce("Could not download file " + filename + " due to an I/O error.");
-            downloadStat.errors++;
-            downloadStat.opFailed++;
-            throw e;
+            return names;
         }
-        downloadStat.opSucceeded++;
-        if (options.recursion > 0) {
-            try {
-                DelegatingFileExtractor delFx = new DelegatingFileExtractor(outFile, annunciator);
-                delFx.extractFile(options.recursion);
-                extractStat.opSucceeded++;
-            } catch (Exception e) {
-                annunciator.announce(e.getMessage());
-                Throwable e2 = e.getCause();
-                if (e2 != null) {
-                    annunciator.announce(e2.getMessage());
-                }
-                extractStat.opFailed++;
-                extractStat.errors++;
+    }
+
+    private void planNsrlFiles(List<DownloadTask> plan, Set<RefreshScope> scopes, int nsrlIds) {
+        if (!scopes.contains(RefreshScope.NSRL)) {
+            return;
+        }
+        if ((nsrlIds & NsrlOption.MODERN.id()) != 0) {
+            plan.add(new DownloadTask(NSRL_ISO_CURRENT_MODERN, status.nsrlDownloadStat, RefreshScope.NSRL));
+        }
+        if ((nsrlIds & NsrlOption.LEGACY.id()) != 0) {
+            plan.add(new DownloadTask(NSRL_ISO_CURRENT_LEGACY, status.nsrlDownloadStat, RefreshScope.NSRL));
+        }
+        if ((nsrlIds & NsrlOption.ANDROID.id()) != 0) {
+            plan.add(new DownloadTask(NSRL_ISO_CURRENT_ANDROID, status.nsrlDownloadStat, RefreshScope.NSRL));
+        }
+        if ((nsrlIds & NsrlOption.IOS.id()) != 0) {
+            plan.add(new DownloadTask(NSRL_ISO_CURRENT_IOS, status.nsrlDownloadStat, RefreshScope.NSRL));
+        }
+    }
+
+
+    private void planNvdFiles(List<DownloadTask> plan, Set<RefreshScope> scopes, int nvdIds) {
+        boolean modified = scopes.contains(RefreshScope.MODIFIED);
+        boolean yearly = scopes.contains(RefreshScope.YEARLY);
+        if ((nvdIds & NvdOption.XML.id()) != 0) {
+            if (modified) {
+                plan.add(new DownloadTask(CVE_XML_12_MODIFIED_URL, status.nvdDownloadStat, RefreshScope.MODIFIED));
+                plan.add(new DownloadTask(CVE_XML_20_MODIFIED_URL, status.nvdDownloadStat, 
+                    metaUrlFor(CVE_XML_20_MODIFIED_URL), RefreshScope.MODIFIED));
             }
+            for (int i=START_YEAR; yearly && i<=END_YEAR; i++) {
+                String cve12BaseUrl = CVE_XML_12_BASE_URL.replace("%d", String.valueOf(i));
+                String cve20BaseUrl = CVE_XML_20_BASE_URL.replace("%d", String.valueOf(i));
+                plan.add(new DownloadTask(cve12BaseUrl, status.nvdDownloadStat, RefreshScope.YEARLY));
+                plan.add(new DownloadTask(cve20BaseUrl, status.nvdDownloadStat, metaUrlFor(cve20BaseUrl), 
+                    RefreshScope.YEARLY));
+            }
+        }
+        if ((nvdIds & NvdOption.JSON.id()) != 0) {
+            if (modified) {
+                plan.add(new DownloadTask(CVE_JSON_10_MODIFIED_URL, status.nvdDownloadStat, 
+                    metaUrlFor(CVE_JSON_10_MODIFIED_URL), RefreshScope.MODIFIED));
+            }
+            for (int i=START_YEAR; yearly && i<=END_YEAR; i++) {
+                String cveJsonBaseUrl = CVE_JSON_10_BASE_URL.replace("%d", String.valueOf(i));
+                plan.add(new DownloadTask(cveJsonBaseUrl, status.nvdDownloadStat, metaUrlFor(cveJsonBaseUrl), 
+                    RefreshScope.YEARLY));
+            }
+        }
+    }
+
+    /*
+     * The interval between refreshes of a group of files, or zero if the group is not
+     * to be refreshed, either because the options say so or because they do not 
+     * download any of its files.
+     */
+    private long refreshMinutes(RefreshScope aScope) {
+        switch (aScope) {
+            case MODIFIED:
+                return (nvdIds() == 0) ? 0 : options.modifiedRefresh;
+            case YEARLY:
+                return (nvdIds() == 0) ? 0 : options.yearlyRefresh;
+            default:
+                return (nsrlIds() == 0) ? 0 : options.nsrlRefresh;
+        }
+    }
+
+    /*
+     * NIST publishes a .meta file next to each XML 2.0 and JSON 1.0 feed, named like
+     * the feed but with the .meta suffix in place of the format and compression suffixes.
+     */
+    private static String metaUrlFor(String feedUrl) {
+        return feedUrl.substring(0, feedUrl.lastIndexOf('.', feedUrl.length() - 4)) + ".meta";
+    }
+
+    /*
+     * Fetches the .meta files of the planned feeds that have them, several at a time,
+     * so that each feed's download can be skipped when its meta data shows that the
+     * cached copy is still current.  A feed whose meta file cannot be fetched is 
+     * simply revalidated as usual.
+     */
+    private void fetchNvdMeta(List<DownloadTask> plan) {
+        List<DownloadTask> withMeta = new ArrayList<DownloadTask>();
+        for (DownloadTask aTask : plan) {
+            if (aTask.metaUrl != null) {
+                withMeta.add(aTask);
+            }
+        }
+        if (withMeta.isEmpty()) {
+            return;
+        }
+        annunciator.announce("Checking " + withMeta.size() + " NVD meta files for changes");
+        ExecutorService fetchers = Executors.newFixedThreadPool(Math.min(withMeta.size(), META_FETCH_THREADS));
+        try {
+            List<Future<?>> fetches = new ArrayList<Future<?>>(withMeta.size());
+            for (DownloadTask aTask : withMeta) {
+                fetches.add(fetchers.submit(() -> {
+                    try {
+                        aTask.meta = fetchMeta(aTask.metaUrl);
+                    } catch (IOException e) {
+                        annunciator.announce("Could not fetch " + aTask.metaUrl + ": " + e.getMessage());
+                    }
+                }));
+            }
+            for (Future<?> aFetch : fetches) {
+                aFetch.get();
+            }
+        } catch (ExecutionException e) {
+            annunciator.announce("Could not fetch NVD meta files: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            fetchers.shutdownNow();
+        }
+    }
+
+    /*
+     * Fetch a meta file from the first source that has it.
+     */
+    private NvdMeta fetchMeta(String metaUrl) throws IOException {
+        List<URL> candidates = upstreams.locate(metaUrl);
+        for (URL aUrl : candidates.subList(0, candidates.size() - 1)) {
+            try {
+                return fetchMeta(aUrl);
+            } catch (IOException e) {
+                // fall through to the next source
+            }
+        }
+        return fetchMeta(candidates.get(candidates.size() - 1));
+    }
+
+    private NvdMeta fetchMeta(URL metaUrl) throws IOException {
+        try (MirrorHttpClient.Response response = http.get(metaUrl, null)) {
+            if (response.code() != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(response.code(), 
+                    "Server answered " + response.code() + " " + response.message() + ".");
+            }
+            return NvdMeta.parse(nvdThrottle.wrap(response.body()));
+        }
+    }
+
+    /*
+     * Runs the planned downloads, options.parallel at a time, handing each downloaded
+     * file to a separate pool of extraction threads as soon as its download finishes.
+     * A download that fails for good is recorded in its status and the remaining
+     * downloads carry on, unless the fail-fast option is set, in which case it cancels
+     * the downloads that have not yet started, although extractions already under way
+     * are allowed to finish.
+     *
+     * The NVD feeds are downloaded freshest first, in the order prioritize() gives
+     * them, so that the latest vulnerability data lands as early in the run as it can.
+     * The NSRL hash sets, which are large and change rarely, are downloaded in a lane
+     * of their own that opens only once the modified NVD feeds are in, so that they
+     * neither hold up the NVD feeds' threads nor contend with the modified feeds for
+     * bandwidth.  The lane's thread comes out of options.parallel, so that no more 
+     * than that many downloads run at once.
+     *
+     * With the adaptive option, a controller fed by the overall throttle's meter lets
+     * between one and options.parallel of the downloads proceed at once.
+     */
+    private void runPlan(File outputDir, List<DownloadTask> plan) throws IOException {
+        List<DownloadTask> nvdTasks = new ArrayList<DownloadTask>();
+        List<DownloadTask> nsrlTasks = new ArrayList<DownloadTask>();
+        for (DownloadTask aTask : plan) {
+            (aTask.scope == RefreshScope.NSRL ? nsrlTasks : nvdTasks).add(aTask);
+        }
+        nvdTasks = prioritize(outputDir, nvdTasks);
+        int modifiedCount = 0;
+        for (DownloadTask aTask : nvdTasks) {
+            modifiedCount += (aTask.scope == RefreshScope.MODIFIED) ? 1 : 0;
+        }
+        CountDownLatch modifiedDone = new CountDownLatch(modifiedCount);
+        // The lanes share the parallel budget between them: the NSRL lane takes one 
+        // thread of it when there are NVD feeds to download as well, or all of it when
+        // there are none.  With a budget of one, both kinds queue for the same thread.
+        int nsrlThreads = 0;
+        if (!nsrlTasks.isEmpty()) {
+            nsrlThreads = nvdTasks.isEmpty() ? options.parallel : (options.parallel > 1) ? 1 : 0;
+        }
+        ExecutorService downloaders = Executors.newFixedThreadPool(Math.max(1, options.parallel - nsrlThreads));
+        ExecutorService nsrlLane = (nsrlThreads > 0) ? Executors.newFixedThreadPool(nsrlThreads) : downloaders;
+        ExecutorService extractors = Executors.newFixedThreadPool(options.parallel);
+        List<Future<File>> downloads = new ArrayList<Future<File>>(plan.size());
+        currentPlan = new ArrayList<DownloadTask>(plan);
+        downloadPool = downloaders;
+        nsrlPool = (nsrlLane != downloaders) ? nsrlLane : null;
+        extractPool = extractors;
+        if (options.adaptive && options.parallel > 1) {
+            concurrency = new AdaptiveConcurrency(1, options.parallel, 
+                AdaptiveConcurrency.DEFAULT_SAMPLE_MILLIS, annunciator);
+            overallThrottle.setMeter(concurrency::recordBytes);
+        }
+        try {
+            for (DownloadTask aTask : nvdTasks) {
+                downloads.add(downloaders.submit(() -> {
+                    try {
+                        return downloadAndExtract(aTask, outputDir, extractors);
+                    } finally {
+                        if (aTask.scope == RefreshScope.MODIFIED) {
+                            modifiedDone.countDown();
+                        }
+                    }
+                }));
+            }
+            for (DownloadTask aTask : nsrlTasks) {
+                downloads.add(nsrlLane.submit(() -> {
+                    modifiedDone.await();
+                    return downloadAndExtract(aTask, outputDir, extractors);
+                }));
+            }
+            for (Future<File> aDownload : downloads) {
+                aDownload.get();
+            }
+        } catch (ExecutionException e) {
+            downloaders.shutdownNow();
+            nsrlLane.shutdownNow();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            downloaders.shutdownNow();
+            nsrlLane.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for downloads to complete.", e);
+        } finally {
+            downloaders.shutdown();
+            nsrlLane.shutdown();
+            try {
+                // Downloads still in flight may yet submit extractions, so stop 
+                // accepting extractions only after they are all done.
+                downloaders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                nsrlLane.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                extractors.shutdown();
+                extractors.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                extractors.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            overallThrottle.setMeter(null);
+            concurrency = null;
+            downloadPool = null;
+            nsrlPool = null;
+            extractPool = null;
+        }
+    }
+
+    /*
+     * Download a planned file and, once it is in, queue its extraction.
+     */
+    private File downloadAndExtract(DownloadTask aTask, File outputDir, ExecutorService extractors) 
+            throws IOException, InterruptedException {
+        File outFile = timedDownload(aTask, outputDir);
+        if (outFile != null) {
+            internDownload(aTask, outFile);
+            recordDownloadDigests(aTask, outFile);
+            notifyDownloaded(outFile, aTask.fetched);
+        }
+        if (outFile != null && options.recursion > 0) {
+            File inflated = aTask.inflated;
+            if (isExtractionCurrent(aTask, outFile)) {
+                annunciator.announce("Using extracted contents of unchanged " + outFile.getName());
+                status.extractStat.succeeded();
+                notifyExtracted(outFile);
+            } else if (inflated != null) {
+                extractors.submit(() -> {
+                    Map<File, Map<String, String>> extracted = new LinkedHashMap<File, Map<String, String>>();
+                    if (timedExtraction(aTask, 
+                            () -> doExtractInflated(outFile, inflated, status.extractStat, extracted))) {
+                        recordExtractionDigests(outFile, extracted);
+                        internExtraction(aTask.blob, outFile);
+                        notifyExtracted(outFile);
+                    }
+                });
+            } else {
+                extractors.submit(() -> {
+                    Map<File, Map<String, String>> extracted = new LinkedHashMap<File, Map<String, String>>();
+                    if (timedExtraction(aTask, () -> doExtract(outFile, status.extractStat, extracted))) {
+                        recordExtractionDigests(outFile, extracted);
+                        internExtraction(aTask.blob, outFile);
+                        notifyExtracted(outFile);
+                    }
+                });
+            }
+        }
+        return outFile;
+    }
+
+    /*
+     * Download a planned file, measuring the download in the task's metrics, which 
+     * the status reports.
+     */
+    private File timedDownload(DownloadTask aTask, File outputDir) throws IOException, InterruptedException {
+        File outFile = null;
+        status.files.put(aTask.fileName(), aTask.metrics);
+        aTask.metrics.started();
+        try {
+            outFile = downloadWithRetries(aTask, outputDir);
+        } finally {
+            aTask.metrics.stopped(outFile != null, outFile != null && !aTask.fetched);
+        }
+        return outFile;
+    }
+
+    /*
+     * Extract a downloaded file's contents, charging the time the extraction took to
+     * the file and to the extraction status, and noting for monitoring that it is 
+     * under way.
+     */
+    private boolean timedExtraction(DownloadTask aTask, BooleanSupplier extraction) {
+        String name = aTask.fileName();
+        long startNanos = System.nanoTime();
+        status.extractStat.started(startNanos);
+        extracting.add(name);
+        try {
+            return extraction.getAsBoolean();
+        } finally {
+            extracting.remove(name);
+            long stopNanos = System.nanoTime();
+            aTask.metrics.extracted(stopNanos - startNanos);
+            status.extractStat.stopped(startNanos, stopNanos);
+        }
+    }
+
+    /*
+     * Tell the listener of a file now current in the mirror directory.  A listener 
+     * that throws is reported, but does not disturb the refresh.
+     */
+    private void notifyDownloaded(File outFile, boolean changed) {
+        try {
+            listener.downloaded(outFile, changed);
+        } catch (RuntimeException e) {
+            annunciator.announce("Listener failed on download of " + outFile.getName() + ": " + e);
+        }
+    }
+
+    /*
+     * Tell the listener of a file whose contents are now extracted next to it.
+     */
+    private void notifyExtracted(File outFile) {
+        List<File> outputs = new ArrayList<File>(2);
+        for (File anOutput : extractionOutputs(outFile)) {
+            if (anOutput.exists()) {
+                outputs.add(anOutput);
+            }
+        }
+        try {
+            listener.extracted(outFile, outputs);
+        } catch (RuntimeException e) {
+            annunciator.announce("Listener failed on extraction of " + outFile.getName() + ": " + e);
+        }
+    }
+
+    /*
+     * Order the NVD downloads so that the freshest data comes first: the modified 
+     * feeds, then the yearly feeds whose meta files show they have changed, most 
+     * recently changed first, then the yearly feeds that have no meta files and so 
+     * may or may not have changed, latest year first, and last the feeds whose meta
+     * files show they are unchanged, which cost next to nothing.  The order is 
+     * otherwise that of the plan.
+     */
+    private List<DownloadTask> prioritize(File outputDir, List<DownloadTask> tasks) throws IOException {
+        SidecarStore sidecars = new SidecarStore(outputDir);
+        Map<DownloadTask, Integer> ranks = new HashMap<DownloadTask, Integer>();
+        Map<DownloadTask, String> recency = new HashMap<DownloadTask, String>();
+        for (DownloadTask aTask : tasks) {
+            NvdMeta remoteMeta = aTask.meta;
+            if (aTask.scope == RefreshScope.MODIFIED) {
+                ranks.put(aTask, 0);
+                recency.put(aTask, "");
+            } else if (remoteMeta == null) {
+                ranks.put(aTask, 2);
+                recency.put(aTask, yearOf(aTask.fileName()));
+            } else if (isUnchanged(remoteMeta, new File(outputDir, aTask.fileName()), sidecars)) {
+                ranks.put(aTask, 3);
+                recency.put(aTask, "");
+            } else {
+                ranks.put(aTask, 1);
+                recency.put(aTask, String.valueOf(remoteMeta.lastModifiedDate()));
+            }
+        }
+        List<DownloadTask> ordered = new ArrayList<DownloadTask>(tasks);
+        ordered.sort(Comparator.comparing((DownloadTask aTask) -> ranks.get(aTask))
+            .thenComparing(recency::get, Comparator.reverseOrder()));
+        return ordered;
+    }
+
+    /*
+     * The year in the name of a yearly feed, such as nvdcve-2.0-2017.xml.gz, or the
+     * empty string if the name has none.
+     */
+    private static String yearOf(String feedName) {
+        String tail = feedName.substring(feedName.lastIndexOf('-') + 1);
+        String year = tail.substring(0, Math.max(0, tail.indexOf('.')));
+        return year.matches("[0-9]{4}") ? year : "";
+    }
+
+    /*
+     * A cached feed is unchanged if its meta file, fetched afresh, describes the same
+     * feed as the one recorded when the cached copy was downloaded.
+     */
+    private static boolean isUnchanged(NvdMeta remoteMeta, File cached, SidecarStore sidecars) 
+            throws IOException {
+        return cached.isFile() && remoteMeta.gzSize() == cached.length()
+            && remoteMeta.describesSameFeedAs(NvdMeta.fromProperties(sidecars.load(cached.getName() + META_SUFFIX)));
+    }
+
+    /*
+     * Place what the plan downloaded into, and extracted in, the primary destination
+     * into each further destination that selects it: each planned file, whatever was 
+     * extracted from it next to it, and the sidecars describing it.  Files are placed 
+     * in parallel, and a file that cannot be placed is recorded as a replication failure.
+     */
+    private void replicate(File primary, List<DownloadTask> plan, Set<RefreshScope> scopes) 
+            throws IOException {
+        SidecarStore primarySidecars = new SidecarStore(primary);
+        String primaryPath = primary.getCanonicalPath();
+        ExecutorService copiers = Executors.newFixedThreadPool(options.parallel);
+        List<Future<?>> copies = new ArrayList<Future<?>>();
+        try {
+            for (Replica aReplica : replicas) {
+                File replicaDir = aReplica.dir;
+                checkOutputDir(replicaDir);
+                if (replicaDir.getCanonicalPath().equals(primaryPath)) {
+                    continue;
+                }
+                Set<String> selected = aReplica.fileNames(scopes);
+                List<File> sources = new ArrayList<File>();
+                for (DownloadTask aTask : plan) {
+                    String name = aTask.fileName();
+                    if (!selected.contains(name)) {
+                        continue;
+                    }
+                    File outFile = new File(primary, name);
+                    sources.add(outFile);
+                    sources.addAll(extractionOutputs(outFile));
+                    sources.add(primarySidecars.fileFor(name));
+                    sources.add(primarySidecars.fileFor(name + META_SUFFIX));
+                }
+                annunciator.announce("Placing downloaded files in " + replicaDir);
+                Replicator replicator = new Replicator();
+                for (File aSource : sources) {
+                    if (!aSource.exists()) {
+                        continue;
+                    }
+                    File dest = new File(replicaDir, primary.toPath().relativize(aSource.toPath()).toString());
+                    copies.add(copiers.submit(() -> {
+                        try {
+                            replicator.replicate(aSource, dest);
+                            status.replicateStat.succeeded();
+                        } catch (IOException e) {
+                            annunciator.announce("Could not place " + dest + ": " + e.getMessage());
+                            status.replicateStat.erred();
+                            status.replicateStat.failed();
+                        }
+                    }));
+                }
+            }
+            for (Future<?> aCopy : copies) {
+                aCopy.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while placing files in further destinations.", e);
+        } finally {
+            copiers.shutdownNow();
+        }
+    }
+
+    /*
+     * Check, before downloading anything, that the destination has room for every 
+     * file the plan will certainly download, with the uncompressed copies that 
+     * extraction will make of the NVD feeds, so that a run does not fill the volume 
+     * partway through.  A file will certainly be downloaded if its meta data shows it
+     * has changed, or if there is no cached copy of it, in which case its size is 
+     * taken from an interrupted download's state or, failing that, asked of its 
+     * sources.  Cached files without meta data may or may not have changed, so room 
+     * for them only prompts a warning.
+     */
+    private void checkPlanSpace(File where, List<DownloadTask> plan) throws IOException {
+        SidecarStore sidecars = new SidecarStore(where);
+        long needed = 0;
+        long possible = 0;
+        List<DownloadTask> unsized = new ArrayList<DownloadTask>();
+        for (DownloadTask aTask : plan) {
+            String name = aTask.fileName();
+            File cached = new File(where, name);
+            NvdMeta remoteMeta = aTask.meta;
+            if (remoteMeta != null) {
+                if (!isUnchanged(remoteMeta, cached, sidecars)) {
+                    needed += remoteMeta.gzSize() + ((options.recursion > 0) ? remoteMeta.size() : 0);
+                }
+            } else if (cached.isFile()) {
+                possible += cached.length();
+            } else {
+                Properties state = sidecars.load(name + PART_SUFFIX);
+                long length = (state == null) ? -1 : Long.parseLong(state.getProperty("length", "-1"));
+                if (length >= 0) {
+                    needed += length;
+                } else {
+                    unsized.add(aTask);
+                }
+            }
+        }
+        needed += headLengths(unsized);
+        long usable = where.getUsableSpace();
+        if (needed > usable) {
+            throw new IOException("Insufficient space in " + where + ": the downloads need " + needed 
+                + " bytes, but only " + usable + " are available.");
+        }
+        if (needed + possible > usable) {
+            annunciator.announce("Warning:  " + where + " has room for the files known to have changed, "
+                + "but not for every file that may have changed");
+        }
+    }
+
+    /*
+     * Ask the sources of several files for their lengths, the files concurrently, and
+     * return the total of the lengths the sources give.
+     */
+    private long headLengths(List<DownloadTask> tasks) {
+        if (tasks.isEmpty()) {
+            return 0;
+        }
+        long total = 0;
+        ExecutorService askers = Executors.newFixedThreadPool(Math.min(tasks.size(), META_FETCH_THREADS));
+        try {
+            List<Future<Long>> lengths = new ArrayList<Future<Long>>(tasks.size());
+            for (DownloadTask aTask : tasks) {
+                lengths.add(askers.submit(() -> headLength(aTask)));
+            }
+            for (Future<Long> aLength : lengths) {
+                total += Math.max(0, aLength.get());
+            }
+        } catch (ExecutionException e) {
+            annunciator.announce("Could not ask the sizes of files: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            askers.shutdownNow();
+        }
+        return total;
+    }
+
+    /*
+     * Ask the sources of a file, in order, for its length.  Returns -1 if none says.
+     */
+    private long headLength(DownloadTask task) {
+        try {
+            for (URL aUrl : upstreams.locate(task.url)) {
+                try (MirrorHttpClient.Response response = http.head(aUrl)) {
+                    if (response.code() == HttpURLConnection.HTTP_OK && response.contentLength() >= 0) {
+                        return response.contentLength();
+                    }
+                } catch (IOException e) {
+                    // try the next source
+                }
+            }
+        } catch (java.net.MalformedURLException e) {
+            // reported when the download is attempted
+        }
+        return -1;
+    }
+
+    private void checkOutputDir(File outputDir) throws IOException {
+        if ( ! outputDir.exists()) {
+          outputDir.mkdirs();
+        }
+        if (!outputDir.exists() || !outputDir.isDirectory()) {
+            throw new IOException("Could neither find nor create output directory " + outputDir + ".");
+        }
+    }
+
+    /*
+     * Write a response's body into a partial file at the given position, digesting it
+     * as it arrives.  When resuming, the part already received is digested first.
+     */
+    private void receive(MirrorHttpClient.Response response, File partFile, long resumeAt, long expectedLength,
+            GzipTee tee, Throttle throttle, Digests digests) throws IOException {
+        try (FileChannel out = FileChannel.open(partFile.toPath(), 
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (resumeAt == 0) {
+                out.truncate(0);
+            } else {
+                digests.update(partFile, resumeAt);
+            }
+            long remaining = (expectedLength < 0) ? -1 : expectedLength - resumeAt;
+            long[] received = new long[] {0};
+            try {
+                InputStream inS = throttle.wrap(response.body());
+                if (tee != null) {
+                    inS = tee.tee(inS);
+                }
+                StreamUtil.transferUntilEof(Channels.newChannel(inS), out, resumeAt, remaining, annunciator, 
+                    (long count) -> received[0] += count, digests);
+                inS.close();
+            } finally {
+                // A later attempt resumes from the end of what was actually received,
+                // which is on the device before the state sidecar outlives this run.
+                out.truncate(resumeAt + received[0]);
+                out.force(false);
+            }
+        }
+    }
+
+    /*
+     * Whether the state sidecar of an interrupted download describes it fully enough to
+     * resume it.  A sidecar that lacks an entry, or whose entries do not parse, as one 
+     * written by an older release or damaged by a crash might, is no resumable state.
+     */
+    private static boolean isResumable(Properties state, URL url, File partFile) {
+        if (!partFile.isFile()
+                || state.getProperty("validator") == null
+                || !url.toExternalForm().equals(state.getProperty("url"))) {
+            return false;
+        }
+        try {
+            long length = Long.parseLong(state.getProperty("length"));
+            int segmentCount = Integer.parseInt(state.getProperty("segments"));
+            String mode = state.getProperty("mode");
+            if ("single".equals(mode)) {
+                return partFile.length() > 0 && partFile.length() < length;
+            } else if (!"segmented".equals(mode) || segmentCount < 1 || length <= 0) {
+                return false;
+            }
+            String progress = state.getProperty("progress");
+            if (progress != null) {
+                String[] counts = progress.split(",");
+                if (counts.length != segmentCount) {
+                    return false;
+                }
+                for (String aCount : counts) {
+                    Long.parseLong(aCount);
+                }
+            }
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private void receiveSegmented(URL url, MirrorHttpClient.Response opened, long length, File partFile,
+            Properties state, SidecarStore sidecars, Throttle throttle) throws IOException {
+        String stateKey = partFile.getName();
+        int segmentCount = Integer.parseInt(state.getProperty("segments"));
+        SegmentedDownload segDownload =
+            new SegmentedDownload(http, url, length, partFile, segmentCount, annunciator);
+        String validator = state.getProperty("validator");
+        String progress = state.getProperty("progress");
+        if (opened == null && progress != null) {
+            String[] counts = progress.split(",");
+            long[] done = new long[counts.length];
+            for (int ix = 0; ix < counts.length; ix++) {
+                done[ix] = Long.parseLong(counts[ix]);
+            }
+            segDownload.resume(done, validator);
+        } else {
+            segDownload.setValidator(validator);
+        }
+        if (validator != null) {
+            segDownload.setCheckpoint((long[] done) -> {
+                StringBuilder counts = new StringBuilder();
+                for (long aCount : done) {
+                    if (counts.length() > 0) {
+                        counts.append(',');
+                    }
+                    counts.append(aCount);
+                }
+                state.setProperty("progress", counts.toString());
+                sidecars.store(stateKey, state);
+            });
+        }
+        segDownload.setThrottle(throttle);
+        annunciator.announce("Downloading " + url.toExternalForm() + " in " + segmentCount + " segments");
+        segDownload.download(opened);
+    }
+
+    /*
+     * Bring a file up to date with a single request.  A partial file left by an earlier
+     * attempt is resumed with a ranged request validated by If-Range.  Otherwise a
+     * cached copy is revalidated with a conditional GET using the ETag and Last-Modified
+     * validators persisted when it was downloaded, falling back to the cached copy's
+     * modification time for copies downloaded before validators were kept.
+     *
+     * Downloads go into a partial file next to the cached copy, and a sidecar
+     * describing the transfer lets a later attempt, possibly in a later run, resume it.
+     * The partial file replaces the cached copy only once it is complete.
+     *
+     * A fresh GZip-compressed file fetched over a single connection is also inflated
+     * while it downloads when the run extracts files, in which case the task records
+     * the uncompressed copy.
+     *
+     * Returns false if the cached copy is current, or true if a fresh copy was
+     * downloaded.
+     */
+    private boolean fetch(DownloadTask task, URL url, File outFile) throws IOException {
+        NvdMeta expected = task.meta;
+        SidecarStore sidecars = new SidecarStore(outFile.getParentFile());
+        String filename = outFile.getName();
+        File partFile = new File(outFile.getPath() + PART_SUFFIX);
+        String stateKey = partFile.getName();
+
+        Properties state = sidecars.load(stateKey);
+        if (state != null && !isResumable(state, url, partFile)) {
+            state = null;
+            partFile.delete();
+            sidecars.remove(stateKey);
+        }
+        if (state != null && "segmented".equals(state.getProperty("mode"))) {
+            annunciator.announce("Resuming segmented download of " + filename);
+            long length = Long.parseLong(state.getProperty("length"));
+            receiveSegmented(url, null, length, partFile, state, sidecars, throttleFor(task));
+            Digests digests = digestSegmented(partFile, length);
+            publish(partFile, outFile, length, state, sidecars, expected, null);
+            task.digests = digests.values();
+            task.inflatedDigests = null;
+            return true;
+        }
+
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        long resumeAt = 0;
+        if (state != null) {
+            resumeAt = partFile.length();
+            headers.put("Range", "bytes=" + resumeAt + "-");
+            headers.put("If-Range", state.getProperty("validator"));
+        } else if (outFile.isFile() && sidecars.load(filename + DIVERGED_SUFFIX) == null) {
+            // A file that no longer matches the source's, as a merged yearly feed does, 
+            // is fetched unconditionally; the source would otherwise deem it current.
+            Properties validators = sidecars.load(filename);
+            String etag = (validators == null) ? null : validators.getProperty("etag");
+            String lastModified = (validators == null) ? null : validators.getProperty("lastModified");
+            if (etag != null) {
+                headers.put("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                headers.put("If-Modified-Since", lastModified);
+            } else if (etag == null) {
+                headers.put("If-Modified-Since", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    ZonedDateTime.ofInstant(Instant.ofEpochMilli(outFile.lastModified()), ZoneOffset.UTC)));
+            }
+        }
+
+        long length;
+        GzipTee tee = null;
+        Digests digests = new Digests(options.digests);
+        MirrorHttpClient.Response response = http.get(url, headers);
+        try {
+            int code = response.code();
+            String contentRange = response.header("Content-Range");
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return false;
+            } else if (code == HttpURLConnection.HTTP_PARTIAL && state != null && contentRange != null
+                    && contentRange.trim().startsWith("bytes " + resumeAt + "-")) {
+                length = Long.parseLong(state.getProperty("length"));
+                task.metrics.expecting(length - resumeAt);
+                annunciator.announce("Resuming download of " + filename + " at byte " + resumeAt);
+                receive(response, partFile, resumeAt, length, null, throttleFor(task), digests);
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                length = response.contentLength();
+                task.metrics.expecting(length);
+                if (length >= 0 && outFile.getParentFile().getUsableSpace() < length) {
+                    response.abandon();
+                    throw new IOException("Insufficient space for file.");
+                }
+                if (outFile.exists()) {
+                    annunciator.announce("Downloading fresh copy of " + filename);
+                } else {
+                    annunciator.announce("Downloading initial copy of " + outFile + " from " + url + ".");
+                }
+                String etag = response.header("ETag");
+                String lastModified = response.header("Last-Modified");
+                boolean segmented = options.segments > 1
+                    && length >= SEGMENTED_DOWNLOAD_THRESHOLD
+                    && "bytes".equalsIgnoreCase(response.header("Accept-Ranges"));
+                state = new Properties();
+                state.setProperty("url", url.toExternalForm());
+                state.setProperty("length", String.valueOf(length));
+                state.setProperty("mode", segmented ? "segmented" : "single");
+                state.setProperty("segments", String.valueOf(segmented ? options.segments : 1));
+                if (etag != null) {
+                    state.setProperty("etag", etag);
+                }
+                if (lastModified != null) {
+                    state.setProperty("lastModified", lastModified);
+                }
+                partFile.delete();
+                if (etag != null || lastModified != null) {
+                    state.setProperty("validator", (etag != null) ? etag : lastModified);
+                    sidecars.store(stateKey, state);
+                } else {
+                    sidecars.remove(stateKey);
+                }
+                if (segmented) {
+                    receiveSegmented(url, response, length, partFile, state, sidecars, throttleFor(task));
+                    digests = digestSegmented(partFile, length);
+                } else {
+                    tee = startInflating(outFile);
+                    receive(response, partFile, 0, length, tee, throttleFor(task), digests);
+                }
+            } else {
+                throw new HttpStatusException(code, "Server answered " + code + " " + response.message()
+                    + " for " + url + ".");
+            }
+            publish(partFile, outFile, length, state, sidecars, expected, tee);
+            task.digests = digests.values();
+            task.inflatedDigests = null;
+            if (tee != null && tee.finish()) {
+                File inflated = new File(outFile.getParentFile(), 
+                    filename.substring(0, filename.length() - GZIP_SUFFIX.length()));
+                AtomicFiles.publish(tee.file(), inflated);
+                FileExtractor.recordExtracted(GZipFileExtractor.class, tee.inflatedBytes(), tee.inflateNanos());
+                task.inflated = inflated;
+                task.inflatedDigests = tee.digests();
+            }
+        } finally {
+            response.close();
+            if (tee != null) {
+                tee.discard();
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Segments arrive out of order, so a file downloaded in segments cannot be digested
+     * as it arrives.  It is read once, in order, as soon as it is complete, while it is
+     * most likely still in the operating system's cache.
+     */
+    private Digests digestSegmented(File partFile, long length) throws IOException {
+        Digests digests = new Digests(options.digests);
+        digests.update(partFile, length);
+        return digests;
+    }
+
+    /*
+     * NSRL downloads and NVD downloads are each throttled within the overall limit.
+     * Each download reads through a Throttle of its own, with no limit of its own, 
+     * whose meter counts the bytes the download receives.
+     */
+    private Throttle throttleFor(DownloadTask task) {
+        Throttle metered = new Throttle(0, 
+            (task.downloadStat == status.nsrlDownloadStat) ? nsrlThrottle : nvdThrottle);
+        metered.setMeter(task.metrics::received);
+        return metered;
+    }
+
+    /*
+     * Begin inflating a GZip-compressed file as it downloads, if the run extracts files.
+     * Returns null for files that are not GZip-compressed.
+     */
+    private GzipTee startInflating(File outFile) throws IOException {
+        if (options.recursion <= 0 || !outFile.getName().endsWith(GZIP_SUFFIX)) {
+            return null;
+        }
+        String name = outFile.getName();
+        File inflatedPart = new File(outFile.getParentFile(), 
+            name.substring(0, name.length() - GZIP_SUFFIX.length()) + PART_SUFFIX);
+        return new GzipTee(inflatedPart, options.digests);
+    }
+
+    /*
+     * Replace the cached copy with a completed partial file and persist the validators
+     * that the next run's conditional request will use.  When the feed's meta data is
+     * known, the partial file must also match its published digest, which is taken from
+     * the tee that inflated it while downloading when there is one.
+     */
+    private void publish(File partFile, File outFile, long length, Properties state, SidecarStore sidecars,
+            NvdMeta expected, GzipTee tee) throws IOException {
+        if (length >= 0 && partFile.length() != length) {
+            throw new IOException("Download of " + outFile.getName() + " ended after "
+                + partFile.length() + " of " + length + " bytes.");
+        }
+        if (expected != null && !((tee != null && tee.finish()) 
+                ? expected.sha256().equalsIgnoreCase(tee.sha256()) : expected.matches(partFile))) {
+            partFile.delete();
+            sidecars.remove(partFile.getName());
+            throw new IOException("Download of " + outFile.getName() 
+                + " does not match the SHA-256 digest published in its meta file.");
+        }
+        AtomicFiles.publish(partFile, outFile);
+        sidecars.remove(partFile.getName());
+
+        Properties validators = new Properties();
+        validators.setProperty("url", state.getProperty("url"));
+        String etag = state.getProperty("etag");
+        String lastModified = state.getProperty("lastModified");
+        if (etag != null) {
+            validators.setProperty("etag", etag);
+        }
+        if (lastModified != null) {
+            validators.setProperty("lastModified", lastModified);
+            try {
+                outFile.setLastModified(ZonedDateTime.parse(lastModified,
+                    DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli());
+            } catch (DateTimeParseException e) {
+                // leave the file's time as it is
+            }
+        }
+        sidecars.store(outFile.getName(), validators);
+        sidecars.remove(outFile.getName() + DIVERGED_SUFFIX);
+    }
+
+    /*
+     * Download a file, retrying failed attempts that may succeed if tried again after
+     * an exponentially growing, jittered delay.  Each failed attempt counts as an error;
+     * running out of attempts counts as a failure.  Returns null when the download
+     * failed for good, unless the fail-fast option makes that throw instead.
+     */
+    private File downloadWithRetries(DownloadTask task, File outputDir) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            AdaptiveConcurrency gate = concurrency;
+            if (gate != null) {
+                gate.acquire();
+            }
+            long delay = 0;
+            try {
+                return doDownload(task, outputDir);
+            } catch (IOException e) {
+                if (attempt < options.retries && isRetryable(e)) {
+                    if (e instanceof java.net.SocketTimeoutException) {
+                        // The connection failed, not the server, so reconnect at once.
+                        annunciator.announce("Reconnecting to resume " + task.url + " after: " + e.getMessage());
+                    } else {
+                        delay = retryDelay(attempt);
+                        annunciator.announce("Retrying " + task.url + " in " + (delay + 500) / 1000 
+                            + " seconds after: " + e.getMessage());
+                    }
+                } else {
+                    task.downloadStat.failed();
+                    if (options.failFast) {
+                        throw e;
+                    }
+                    annunciator.announce("Giving up on " + task.url + " after " + (attempt + 1)
+                        + " attempts (" + e.getMessage() + "), continuing with the remaining files.");
+                    return null;
+                }
+            } finally {
+                if (gate != null) {
+                    gate.release();
+                }
+            }
+            // Back off without holding a permit, so that healthy downloads can use it.
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            task.metrics.retried();
+        }
+    }
+
+    /*
+     * Exponential backoff with "equal jitter": between half of and the full 
+     * exponentially-grown delay, so that retrying downloads spread out.
+     */
+    private static long retryDelay(int attempt) {
+        long ceiling = Math.min(RETRY_MAX_DELAY_MS, RETRY_BASE_DELAY_MS << Math.min(attempt, 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /*
+     * Client errors other than timeouts and rate limiting will not go away by retrying,
+     * and nor will a malformed URL.
+     */
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof java.net.MalformedURLException) {
+            return false;
+        }
+        if (e instanceof HttpStatusException) {
+            int code = ((HttpStatusException) e).code();
+            return code >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                || code == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                || code == HttpStatusException.HTTP_TOO_MANY_REQUESTS;
+        }
+        return true;
+    }
+
+    private File doDownload(DownloadTask task, File outputDir) throws IOException {
+        OpGroupStatus downloadStat = task.downloadStat;
+        File outFile = null;
+        String filename = null;
+        URL url;
+        try {
+            url = new URL(task.url);
+        } catch (java.net.MalformedURLException e) {
+            annunciator.announce("Could not download file due to an internal error (malformed URL).");
+            downloadStat.erred();
+            throw e;
+        }
+        try {
+            filename = url.getFile();
+            filename = filename.substring(filename.lastIndexOf('/') + 1);
+            outFile = new File(outputDir, filename).getCanonicalFile();
+            annunciator.announce("Looking for file " + outFile + " downloaded from " + task.url + ".");
+            SidecarStore sidecars = new SidecarStore(outputDir);
+            String metaKey = filename + META_SUFFIX;
+            NvdMeta remoteMeta = task.meta;
+            if (remoteMeta != null && isUnchanged(remoteMeta, outFile, sidecars)) {
+                annunciator.announce("Using cached version of " + filename + ", unchanged according to its meta file");
+            } else if (fetchFromSources(task, url, outFile)) {
+                task.fetched = true;
+                if (remoteMeta != null) {
+                    sidecars.store(metaKey, remoteMeta.toProperties());
+                }
+            } else {
+                annunciator.announce("Using cached version of " + filename);
+                if (remoteMeta != null) {
+                    if (matchesMeta(remoteMeta, outFile)) {
+                        sidecars.store(metaKey, remoteMeta.toProperties());
+                    } else {
+                        annunciator.announce("Warning:  Cached " + filename 
+                            + " does not yet match the digest published in its meta file");
+                    }
+                }
+            }
+        } catch (IOException e) {
+            noteCongestion(e);
+            annunciator.announce("Could not download file " + filename + " due to an I/O error.");
+            downloadStat.erred();
+            throw e;
+        }
+        downloadStat.succeeded();
+        return outFile;
+    }
+
+    /*
+     * Download a file from the first of its sources that can provide it, or revalidate
+     * the cached copy there, falling through to the next source when one lacks the 
+     * file, fails, or, when the file has published meta data, has only an out-of-date 
+     * copy.  Returns whether a new version was downloaded.
+     */
+    private boolean fetchFromSources(DownloadTask task, URL origin, File outFile) throws IOException {
+        if (upstreams.isEmpty()) {
+            return fetch(task, origin, outFile);
+        }
+        List<URL> candidates = upstreams.locate(task.url);
+        for (URL aUrl : candidates.subList(0, candidates.size() - 1)) {
+            try {
+                if (fetch(task, aUrl, outFile)) {
+                    return true;
+                }
+                if (task.meta == null || matchesMeta(task.meta, outFile)) {
+                    return false;
+                }
+                annunciator.announce("No current " + outFile.getName() + " at " + aUrl + ", trying the next source");
+            } catch (java.net.SocketTimeoutException e) {
+                annunciator.announce("Could not download " + outFile.getName() + " from " + aUrl 
+                    + " (" + e.getMessage() + "), trying the next source");
+            } catch (java.io.InterruptedIOException e) {
+                throw e;
+            } catch (HttpStatusException e) {
+                if (e.code() == HttpURLConnection.HTTP_NOT_FOUND) {
+                    annunciator.announce("No " + outFile.getName() + " at " + aUrl + ", trying the next source");
+                } else {
+                    annunciator.announce("Could not download " + outFile.getName() + " from " + aUrl 
+                        + " (" + e.getMessage() + "), trying the next source");
+                }
+            } catch (IOException e) {
+                annunciator.announce("Could not download " + outFile.getName() + " from " + aUrl 
+                    + " (" + e.getMessage() + "), trying the next source");
+            }
+        }
+        return fetch(task, origin, outFile);
+    }
+
+    /*
+     * Tell the adaptive controller, if any, when a failure shows that the server is 
+     * overloaded or dropping connections.
+     */
+    private void noteCongestion(IOException e) {
+        AdaptiveConcurrency gate = concurrency;
+        if (gate == null) {
+            return;
+        }
+        for (Throwable aCause = e; aCause != null; aCause = aCause.getCause()) {
+            if ((aCause instanceof HttpStatusException && ((HttpStatusException) aCause).isOverload())
+                    || aCause instanceof java.net.SocketException) {
+                gate.congestion(aCause.getMessage());
+                return;
+            }
+        }
+    }
+
+    /*
+     * Finish the extraction of a GZip-compressed file that was inflated as it downloaded,
+     * by extracting the uncompressed file in turn as the GZip extractor would have.
+     */
+    private boolean doExtractInflated(File outFile, File inflated, OpGroupStatus extractStat,
+            Map<File, Map<String, String>> extracted) {
+        annunciator.announce("Uncompressed " + outFile.getName() + " while downloading it");
+        try {
+            if (options.recursion > 1) {
+                DelegatingFileExtractor delFx = new DelegatingFileExtractor(inflated, annunciator);
+                delFx.recordDigests(options.digests, extracted::put);
+                delFx.extractFile(options.recursion - 1);
+            }
+            extractStat.succeeded();
+        } catch (FileExtractor.UnsupportedExtractionException e) {
+            // the uncompressed file is not itself an archive
+            extractStat.succeeded();
+        } catch (Exception e) {
+            annunciator.announce(e.getMessage());
+            extractStat.failed();
+            extractStat.erred();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean doExtract(File outFile, OpGroupStatus extractStat, Map<File, Map<String, String>> extracted) {
+        try {
+            DelegatingFileExtractor delFx = new DelegatingFileExtractor(outFile, annunciator);
+            delFx.recordDigests(options.digests, extracted::put);
+            delFx.extractFile(options.recursion);
+            extractStat.succeeded();
+        } catch (Exception e) {
+            annunciator.announce(e.getMessage());
+            Throwable e2 = e.getCause();
+            if (e2 != null) {
+                annunciator.announce(e2.getMessage());
+            }
+            extractStat.failed();
+            extractStat.erred();
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * The files and directories that extracting a downloaded file produces next to it:
+     * extractors write a file, or a directory, named without the file's suffix.
+     */
+    private static List<File> extractionOutputs(File outFile) {
+        List<File> outputs = new ArrayList<File>(2);
+        String name = outFile.getName();
+        int dotIx = name.lastIndexOf('.');
+        if (dotIx > 0) {
+            String stem = name.substring(0, dotIx);
+            outputs.add(new File(outFile.getParentFile(), stem));
+            outputs.add(new File(outFile.getParentFile(), stem + ".dir"));
+        }
+        return outputs;
+    }
+
+    /*
+     * Open the content-addressed store the options call for, if any.
+     */
+    private ContentStore openStore(File where) {
+        if (options.store == null) {
+            return null;
+        }
+        File root = options.store.isEmpty() 
+            ? new File(new SidecarStore(where).directory(), ContentStore.DEFAULT_DIR_NAME)
+            : new File(options.store);
+        annunciator.announce("Keeping downloaded and extracted files in the store at " + root);
+        return new ContentStore(root.getAbsoluteFile());
+    }
+
+    /*
+     * Make a downloaded file a link into the store.  A sidecar records the digest with
+     * which it was last interned, so an unchanged file that is still linked to its blob
+     * is not read again.  Failing to intern a file leaves it in place and is not an error.
+     */
+    private void internDownload(DownloadTask task, File outFile) {
+        if (store == null) {
+            return;
+        }
+        try {
+            task.blob = internFile(outFile, 
+                (task.digests != null) ? task.digests.get(Digests.SHA256) : recordedSha256(outFile, outFile));
+        } catch (IOException e) {
+            annunciator.announce("Warning:  Could not keep " + outFile.getName() + " in the store: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Make a file a link into the store, unless its sidecar shows that it already is, 
+     * and return the digest of its content, which is read only if it is not known.
+     */
+    private String internFile(File outFile, String knownSha256) throws IOException {
+        SidecarStore sidecars = new SidecarStore(outFile.getParentFile());
+        String blobKey = outFile.getName() + BLOB_SUFFIX;
+        Properties blobProps = sidecars.load(blobKey);
+        String digest = (blobProps == null) ? null : blobProps.getProperty("sha256");
+        if (!store.holds(outFile, digest)) {
+            digest = (knownSha256 == null) ? store.intern(outFile) : store.intern(outFile, knownSha256);
+            blobProps = new Properties();
+            blobProps.setProperty("sha256", digest);
+            sidecars.store(blobKey, blobProps);
+        }
+        return digest;
+    }
+
+    /*
+     * Record the digests of a freshly downloaded file, and of the uncompressed copy 
+     * inflated while it downloaded, in a sidecar that replaces any kept for an earlier
+     * version of the file.  An unchanged file keeps its sidecar.  Either way, the 
+     * digests recorded for the file are reported in the status.  A sidecar belongs to
+     * the version of the file, identified by its length and modification time, that
+     * was current when it was written; it is ignored once the file changes.
+     */
+    private void recordDownloadDigests(DownloadTask task, File outFile) {
+        try {
+            Properties recorded;
+            if (task.digests != null) {
+                recorded = new Properties();
+                recorded.setProperty("version", versionOf(outFile));
+                putDigests(recorded, outFile.getParentFile(), outFile, task.digests);
+                if (task.inflated != null && task.inflatedDigests != null) {
+                    putDigests(recorded, outFile.getParentFile(), task.inflated, task.inflatedDigests);
+                }
+                new SidecarStore(outFile.getParentFile()).store(outFile.getName() + DIGESTS_SUFFIX, recorded);
+            } else {
+                recorded = loadDigests(outFile);
+            }
+            reportDigests(recorded);
+        } catch (IOException e) {
+            annunciator.announce("Warning:  Could not record the digests of " + outFile.getName() 
+                + ": " + e.getMessage());
+        }
+    }
+
+    /*
+     * Add the digests that the extractors computed while writing the contents of a 
+     * downloaded file to the file's sidecar.
+     */
+    private void recordExtractionDigests(File outFile, Map<File, Map<String, String>> extracted) {
+        if (extracted.isEmpty()) {
+            return;
+        }
+        try {
+            Properties recorded = loadDigests(outFile);
+            if (recorded == null) {
+                recorded = new Properties();
+                recorded.setProperty("version", versionOf(outFile));
+            }
+            for (Map.Entry<File, Map<String, String>> anEntry : extracted.entrySet()) {
+                putDigests(recorded, outFile.getParentFile(), anEntry.getKey(), anEntry.getValue());
+            }
+            new SidecarStore(outFile.getParentFile()).store(outFile.getName() + DIGESTS_SUFFIX, recorded);
+            reportDigests(recorded);
+        } catch (IOException e) {
+            annunciator.announce("Warning:  Could not record the digests of the contents of " 
+                + outFile.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /*
+     * The sidecar of digests recorded for the current version of a downloaded file and
+     * the files extracted from it, or null if there is none.
+     */
+    private Properties loadDigests(File outFile) throws IOException {
+        Properties recorded = new SidecarStore(outFile.getParentFile()).load(outFile.getName() + DIGESTS_SUFFIX);
+        if (recorded == null || !versionOf(outFile).equals(recorded.getProperty("version"))) {
+            return null;
+        }
+        return recorded;
+    }
+
+    /*
+     * The SHA-256 digest recorded for a downloaded file, or for a file extracted from
+     * it, or null if there is none.
+     */
+    private String recordedSha256(File outFile, File aFile) {
+        try {
+            Properties recorded = loadDigests(outFile);
+            return (recorded == null) ? null 
+                : recorded.getProperty(relativeName(outFile.getParentFile(), aFile) + "." + Digests.SHA256);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Determine whether a GZip-compressed NVD feed matches its meta file, using the 
+     * digest recorded when its content was uncompressed rather than uncompressing it
+     * again, when there is one.
+     */
+    private boolean matchesMeta(NvdMeta meta, File gzFile) throws IOException {
+        String name = gzFile.getName();
+        if (name.endsWith(GZIP_SUFFIX)) {
+            String sha256 = recordedSha256(gzFile, 
+                new File(gzFile.getParentFile(), name.substring(0, name.length() - GZIP_SUFFIX.length())));
+            if (sha256 != null) {
+                return meta.sha256().equalsIgnoreCase(sha256);
+            }
+        }
+        return meta.matches(gzFile);
+    }
+
+    private void reportDigests(Properties recorded) {
+        if (recorded != null) {
+            status.digests.putAll(parseDigests(recorded));
+        }
+    }
+
+    /*
+     * Digests are recorded under the file's path relative to the mirror directory,
+     * followed by a dot and the digest's name.
+     */
+    private static void putDigests(Properties recorded, File dir, File aFile, Map<String, String> digests) {
+        String name = relativeName(dir, aFile);
+        for (Map.Entry<String, String> aDigest : digests.entrySet()) {
+            recorded.setProperty(name + "." + aDigest.getKey(), aDigest.getValue());
+        }
+    }
+
+    private static Map<String, Map<String, String>> parseDigests(Properties recorded) {
+        Map<String, Map<String, String>> parsed = new LinkedHashMap<String, Map<String, String>>();
+        for (String aKey : recorded.stringPropertyNames()) {
+            int dotIx = aKey.lastIndexOf('.');
+            if (dotIx > 0) {
+                Map<String, String> digests = parsed.get(aKey.substring(0, dotIx));
+                if (digests == null) {
+                    digests = new TreeMap<String, String>();
+                    parsed.put(aKey.substring(0, dotIx), digests);
+                }
+                digests.put(aKey.substring(dotIx + 1), recorded.getProperty(aKey));
+            }
+        }
+        return parsed;
+    }
+
+    private static String relativeName(File dir, File aFile) {
+        return dir.toPath().toAbsolutePath().normalize()
+            .relativize(aFile.toPath().toAbsolutePath().normalize()).toString().replace(File.separatorChar, '/');
+    }
+
+    private static String versionOf(File aFile) {
+        return aFile.length() + "/" + aFile.lastModified();
+    }
+
+    /*
+     * Determine whether the contents extracted from a downloaded file on an earlier run
+     * are still in place and were extracted, just as deeply, from the same content.
+     */
+    private boolean isExtractionCurrent(DownloadTask task, File outFile) {
+        if (store == null || task.blob == null || task.inflated != null) {
+            return false;
+        }
+        try {
+            Properties extracted = new SidecarStore(outFile.getParentFile()).load(outFile.getName() + EXTRACT_SUFFIX);
+            if (extracted == null || !task.blob.equals(extracted.getProperty("source"))
+                    || !String.valueOf(options.recursion).equals(extracted.getProperty("recursion"))) {
+                return false;
+            }
+            String outputs = extracted.getProperty("outputs", "");
+            if (outputs.isEmpty()) {
+                return false;
+            }
+            for (String anOutput : outputs.split("/")) {
+                if (!new File(outFile.getParentFile(), anOutput).exists()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Make the contents extracted from a downloaded file links into the store, and 
+     * record which content they were extracted from so that later runs need not
+     * extract it again.
+     */
+    private void internExtraction(String blob, File outFile) {
+        if (store == null || blob == null) {
+            return;
+        }
+        try {
+            Map<File, String> known = new HashMap<File, String>();
+            Properties recorded = loadDigests(outFile);
+            if (recorded != null) {
+                for (Map.Entry<String, Map<String, String>> anEntry : parseDigests(recorded).entrySet()) {
+                    known.put(new File(outFile.getParentFile(), anEntry.getKey()).toPath().toAbsolutePath()
+                        .normalize().toFile(), anEntry.getValue().get(Digests.SHA256));
+                }
+            }
+            StringBuilder outputs = new StringBuilder();
+            for (File anOutput : extractionOutputs(outFile)) {
+                if (anOutput.exists()) {
+                    store.internTree(anOutput, known);
+                    outputs.append(outputs.length() == 0 ? "" : "/").append(anOutput.getName());
+                }
+            }
+            Properties extracted = new Properties();
+            extracted.setProperty("source", blob);
+            extracted.setProperty("recursion", String.valueOf(options.recursion));
+            extracted.setProperty("outputs", outputs.toString());
+            new SidecarStore(outFile.getParentFile()).store(outFile.getName() + EXTRACT_SUFFIX, extracted);
+        } catch (IOException e) {
+            annunciator.announce("Warning:  Could not keep the contents of " + outFile.getName() 
+                + " in the store: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Merge the modified JSON feed into each yearly JSON feed it has changes for.  A 
+     * sidecar records which version of the modified feed was last merged, so that an
+     * unchanged modified feed is not merged again unless the yearly feeds have just been
+     * refreshed, or an earlier merge failed.  A merged feed no longer matches 
+     * NIST's, so its validators and meta data are forgotten and a sidecar marks it as
+     * diverged, which makes the next refresh of the yearly feeds download it afresh
+     * rather than ask NIST whether it has changed since.  Years whose feeds have not been downloaded
+     * are left alone.
+     */
+    private void mergeModifiedFeed(File where, boolean yearlyRefreshed) {
+        String modifiedName = CVE_JSON_10_MODIFIED_URL.substring(CVE_JSON_10_MODIFIED_URL.lastIndexOf('/') + 1);
+        File modifiedFeed = new File(where, modifiedName);
+        if (!modifiedFeed.isFile()) {
+            return;
+        }
+        SidecarStore sidecars = new SidecarStore(where);
+        String mergedKey = modifiedName + MERGED_SUFFIX;
+        String version = modifiedFeed.length() + "/" + modifiedFeed.lastModified();
+        try {
+            Properties merged = sidecars.load(mergedKey);
+            if (!yearlyRefreshed && merged != null && version.equals(merged.getProperty("version"))) {
+                return;
+            }
+            boolean mergedAll = true;
+            NvdFeedMerger merger = new NvdFeedMerger(modifiedFeed, START_YEAR);
+            for (int aYear : merger.years()) {
+                String yearlyUrl = CVE_JSON_10_BASE_URL.replace("%d", String.valueOf(aYear));
+                File yearlyFeed = new File(where, yearlyUrl.substring(yearlyUrl.lastIndexOf('/') + 1));
+                if (!yearlyFeed.isFile()) {
+                    continue;
+                }
+                try {
+                    mergeInto(merger, yearlyFeed, aYear, sidecars);
+                } catch (IOException e) {
+                    annunciator.announce("Could not merge " + modifiedName + " into " + yearlyFeed.getName() 
+                        + ": " + e.getMessage());
+                    status.mergeStat.erred();
+                    status.mergeStat.failed();
+                    mergedAll = false;
+                }
+            }
+            if (mergedAll) {
+                merged = new Properties();
+                merged.setProperty("version", version);
+                sidecars.store(mergedKey, merged);
+            }
+        } catch (IOException e) {
+            annunciator.announce("Could not merge " + modifiedName + ": " + e.getMessage());
+            status.mergeStat.erred();
+            status.mergeStat.failed();
+        }
+    }
+
+    private void mergeInto(NvdFeedMerger merger, File yearlyFeed, int year, SidecarStore sidecars) 
+            throws IOException {
+        File stagedFeed = AtomicFiles.stage(yearlyFeed);
+        File json = null;
+        File stagedJson = null;
+        try {
+            if (options.recursion > 0) {
+                json = new File(yearlyFeed.getParentFile(), 
+                    yearlyFeed.getName().substring(0, yearlyFeed.getName().length() - GZIP_SUFFIX.length()));
+                stagedJson = AtomicFiles.stage(json);
+            }
+            int changed = merger.merge(yearlyFeed, year, stagedFeed, stagedJson);
+            if (changed == 0) {
+                return;
+            }
+            String name = yearlyFeed.getName();
+            sidecars.remove(name);
+            sidecars.remove(name + META_SUFFIX);
+            sidecars.remove(name + BLOB_SUFFIX);
+            sidecars.remove(name + EXTRACT_SUFFIX);
+            sidecars.remove(name + DIGESTS_SUFFIX);
+            Properties diverged = new Properties();
+            diverged.setProperty("mergedAt", Instant.now().toString());
+            sidecars.store(name + DIVERGED_SUFFIX, diverged);
+            AtomicFiles.publish(stagedFeed, yearlyFeed);
+            if (stagedJson != null) {
+                AtomicFiles.publish(stagedJson, json);
+            }
+            annunciator.announce("Merged " + changed + " modified CVEs into " + name);
+            status.mergeStat.succeeded();
+            if (store != null) {
+                internExtraction(internFile(yearlyFeed, null), yearlyFeed);
+            }
+        } finally {
+            stagedFeed.delete();
+            if (stagedJson != null) {
+                stagedJson.delete();
+            }
+        }
+    }
+
+    /*
+     * Remove from the store the blobs that no mirror directory links to any longer.
+     */
+    private void pruneStore() {
+        if (store == null) {
+            return;
+        }
+        try {
+            long pruned = store.prune();
+            if (pruned > 0) {
+                annunciator.announce("Removed " + pruned + " unused files from the store");
+            }
+        } catch (IOException e) {
+            annunciator.announce("Warning:  Could not prune the store: " + e.getMessage());
         }
     }
 
@@ -0,0 +1,204 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror;
+
+/**
+ * The management interface through which JMX clients, such as <code>jconsole</code>,
+ * watch a mirror at work: which files it is downloading and extracting, how fast,
+ * how much is left, and how the operations of the current or latest refresh have
+ * fared.  The counts are those of the current refresh while one runs, and of the
+ * latest one otherwise.
+ * <p>
+ * Comparing the queued downloads with the queued extractions shows which of the two
+ * holds a refresh back.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ *
+ * @see NistDataMirror#registerMBean()
+ */
+public interface NistDataMirrorMXBean {
+
+    /**
+     * Indicate whether a refresh is in progress.
+     *
+     * @return  true if and only if the mirror is refreshing files
+     */
+    public boolean isRunning();
+
+    /**
+     * Return the directory into which the mirror downloads files.
+     *
+     * @return  the path of the directory
+     */
+    public String getDestination();
+
+    /**
+     * Return how long the current refresh has run, or the latest refresh ran.
+     *
+     * @return  the time in seconds
+     */
+    public long getElapsedSeconds();
+
+    /**
+     * Return the files being downloaded at the moment, each with its progress.
+     *
+     * @return  a description of each download
+     */
+    public String[] getActiveDownloads();
+
+    /**
+     * Return the downloaded files whose contents are being extracted at the moment.
+     *
+     * @return  the names of the files
+     */
+    public String[] getActiveExtractions();
+
+    /**
+     * Return the number of files the refresh plans to download.
+     *
+     * @return  the count
+     */
+    public int getPlannedFiles();
+
+    /**
+     * Return the number of planned files whose download has finished, successfully
+     * or not.
+     *
+     * @return  the count
+     */
+    public int getFinishedFiles();
+
+    /**
+     * Return the number of downloads waiting for a thread.
+     *
+     * @return  the count
+     */
+    public int getQueuedDownloads();
+
+    /**
+     * Return the number of extractions waiting for a thread.
+     *
+     * @return  the count
+     */
+    public int getQueuedExtractions();
+
+    /**
+     * Return the number of bytes downloaded.
+     *
+     * @return  the count
+     */
+    public long getBytesDone();
+
+    /**
+     * Return the number of bytes still to download, as far as the sizes of the files
+     * still to download are known.
+     *
+     * @return  the count
+     */
+    public long getBytesRemaining();
+
+    /**
+     * Return the rate at which bytes have been downloaded over the refresh.
+     *
+     * @return  the rate in bytes per second
+     */
+    public double getThroughput();
+
+    /**
+     * Return the number of NVD files downloaded, or found current, successfully.
+     *
+     * @return  the count
+     */
+    public long getNvdDownloadsSucceeded();
+
+    /**
+     * Return the number of NVD files that could not be downloaded.
+     *
+     * @return  the count
+     */
+    public long getNvdDownloadsFailed();
+
+    /**
+     * Return the number of NSRL files downloaded, or found current, successfully.
+     *
+     * @return  the count
+     */
+    public long getNsrlDownloadsSucceeded();
+
+    /**
+     * Return the number of NSRL files that could not be downloaded.
+     *
+     * @return  the count
+     */
+    public long getNsrlDownloadsFailed();
+
+    /**
+     * Return the number of downloaded files whose contents were extracted.
+     *
+     * @return  the count
+     */
+    public long getExtractionsSucceeded();
+
+    /**
+     * Return the number of downloaded files whose contents could not be extracted.
+     *
+     * @return  the count
+     */
+    public long getExtractionsFailed();
+
+    /**
+     * Return the number of files placed in further destination directories.
+     *
+     * @return  the count
+     */
+    public long getReplicationsSucceeded();
+
+    /**
+     * Return the number of yearly feeds into which the modified feed was merged.
+     *
+     * @return  the count
+     */
+    public long getMergesSucceeded();
+
+    /**
+     * Return the number of errors encountered, of every kind.
+     *
+     * @return  the count
+     */
+    public long getErrors();
+
+    /**
+     * Return the number of times downloads were retried.
+     *
+     * @return  the count
+     */
+    public long getRetries();
+
+    /**
+     * Return the number of files found current, and so not downloaded.
+     *
+     * @return  the count
+     */
+    public long getCacheHits();
+
+    /**
+     * Return the full status of the refresh, as the command line reports it.
+     *
+     * @return  the status
+     */
+    public String getStatus();
+}
@@ -0,0 +1,376 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import us.springett.nistdatamirror.internal.AtomicFiles;
+
+/**
+ * Keeps the metrics of a mirror's refreshes, from one refresh to the next, and
+ * renders them, with those of the extraction framework, in the Prometheus text
+ * exposition format.  The metrics can be written to a file for node_exporter's
+ * textfile collector, or served over HTTP for Prometheus to scrape.
+ * <p>
+ * For each planned file, the metrics give when it was last downloaded, or found
+ * current, successfully, so that alerts can fire on stale files, along with the
+ * bytes, duration and cache hit of its latest download and running totals.  For the
+ * mirror, they count refreshes and operations.  For each type of extractor, they
+ * give the files, bytes and time extracted, and the resulting throughput.  NVD feeds
+ * inflated while they download count as the work of <code>GZipFileExtractor</code>,
+ * timed without the waits for the download to deliver them.
+ * <p>
+ * Every metric is named with the prefix <code>nistdatamirror_</code> and labelled
+ * with the mirror's directory, except the extractors' metrics, which cover the whole
+ * process.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class PrometheusMetrics {
+
+    /**
+     * The content type of the text exposition format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The path at which serve() serves the metrics.
+     */
+    public static final String METRICS_PATH = "/metrics";
+
+    private static final String PREFIX = "nistdatamirror_";
+
+    private final String mirror;
+    private final Map<String, FileRecord> files = new TreeMap<String, FileRecord>();
+    private final Map<String, long[]> operations = new LinkedHashMap<String, long[]>();
+    private long refreshes = 0;
+    private long lastStartMillis = 0;
+    private long lastStopMillis = 0;
+    private boolean lastCompleted = false;
+
+    /**
+     * Create the metrics of a mirror.
+     *
+     * @param   mirror  the mirror's directory, with which the metrics are labelled
+     */
+    public PrometheusMetrics(String mirror) {
+        this.mirror = mirror;
+    }
+
+    /**
+     * Add the outcome of a refresh to the metrics.
+     *
+     * @param   status          the status of the refresh, once it has stopped
+     * @param   startMillis     when the refresh started, in milliseconds since the epoch
+     * @param   stopMillis      when the refresh stopped, in milliseconds since the epoch
+     */
+    public synchronized void record(NistDataMirror.CompletionStatus status, long startMillis, long stopMillis) {
+        refreshes += 1;
+        lastStartMillis = startMillis;
+        lastStopMillis = stopMillis;
+        lastCompleted = status.completed;
+        addOperations("nvd_download", status.nvdDownloadStat);
+        addOperations("nsrl_download", status.nsrlDownloadStat);
+        addOperations("extract", status.extractStat);
+        addOperations("replicate", status.replicateStat);
+        addOperations("merge", status.mergeStat);
+        for (Map.Entry<String, NistDataMirror.FileMetrics> anEntry : status.files.entrySet()) {
+            NistDataMirror.FileMetrics metrics = anEntry.getValue();
+            if (metrics.stopTimeMillis() == 0) {
+                continue;
+            }
+            FileRecord record = files.get(anEntry.getKey());
+            if (record == null) {
+                record = new FileRecord();
+                files.put(anEntry.getKey(), record);
+            }
+            record.add(metrics);
+        }
+    }
+
+    /**
+     * Render the metrics of several mirrors, and of the extraction framework, in the
+     * text exposition format.
+     *
+     * @param   mirrors     the mirrors' metrics
+     *
+     * @return  the text
+     */
+    public static String render(Collection<PrometheusMetrics> mirrors) {
+        Families families = new Families();
+        for (PrometheusMetrics aMirror : mirrors) {
+            aMirror.collect(families);
+        }
+        for (Map.Entry<String, FileExtractor.ExtractorStats> anEntry : FileExtractor.extractorStats().entrySet()) {
+            FileExtractor.ExtractorStats stats = anEntry.getValue();
+            if (stats.files() == 0) {
+                // a delegating extractor, or one that never recognized a file
+                continue;
+            }
+            String labels = labels("type", anEntry.getKey());
+            families.add("extractor_files_total", "counter",
+                "Files extracted by each type of extractor.", labels, stats.files());
+            families.add("extractor_bytes_total", "counter",
+                "Bytes extracted by each type of extractor.", labels, stats.bytes());
+            families.add("extractor_seconds_total", "counter",
+                "Time spent extracting by each type of extractor, excluding nested extractions and waits for downloads.",
+                labels, stats.seconds());
+            families.add("extractor_throughput_bytes_per_second", "gauge",
+                "Bytes extracted per second spent extracting, by each type of extractor.",
+                labels, stats.throughput());
+        }
+        return families.toString();
+    }
+
+    /**
+     * Write the metrics of several mirrors, and of the extraction framework, to a file
+     * for node_exporter's textfile collector.  The file is replaced atomically, so the
+     * collector never reads it half written.
+     *
+     * @param   aFile       the file, whose name should end in <code>.prom</code>
+     * @param   mirrors     the mirrors' metrics
+     *
+     * @throws IOException      when an I/O error occurs.
+     */
+    public static void writeTextFile(File aFile, Collection<PrometheusMetrics> mirrors) throws IOException {
+        File staged = AtomicFiles.stage(aFile);
+        try {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(staged), StandardCharsets.UTF_8)) {
+                out.write(render(mirrors));
+            }
+            AtomicFiles.publish(staged, aFile);
+        } finally {
+            staged.delete();
+        }
+    }
+
+    /**
+     * Serve the metrics of several mirrors, and of the extraction framework, over HTTP
+     * at <code>METRICS_PATH</code>, rendering them afresh for each request.
+     *
+     * @param   port        the port on which to listen
+     * @param   mirrors     the mirrors' metrics
+     *
+     * @return  the running server, which the caller should stop when done with it
+     *
+     * @throws IOException      when the server cannot listen on the port.
+     */
+    public static HttpServer serve(int port, Collection<PrometheusMetrics> mirrors) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        List<PrometheusMetrics> served = new ArrayList<PrometheusMetrics>(mirrors);
+        server.createContext(METRICS_PATH, exchange -> {
+            try {
+                byte[] body = render(served).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    // Private implementation
+
+    /*
+     * Add a refresh's counts of a group of operations to their totals.
+     */
+    private void addOperations(String operation, NistDataMirror.OpGroupStatus stat) {
+        long[] counts = operations.get(operation);
+        if (counts == null) {
+            counts = new long[3];
+            operations.put(operation, counts);
+        }
+        counts[0] += stat.succeededCount();
+        counts[1] += stat.failedCount();
+        counts[2] += stat.errorCount();
+    }
+
+    /*
+     * Add the samples of the mirror's metrics to those being rendered.
+     */
+    private synchronized void collect(Families families) {
+        String labels = labels("mirror", mirror);
+        families.add("refreshes_total", "counter", "Refreshes of the mirror.", labels, refreshes);
+        if (refreshes > 0) {
+            families.add("last_refresh_timestamp_seconds", "gauge",
+                "When the latest refresh of the mirror stopped.", labels, lastStopMillis / 1000.0);
+            families.add("last_refresh_duration_seconds", "gauge",
+                "How long the latest refresh of the mirror took.", labels, (lastStopMillis - lastStartMillis) / 1000.0);
+            families.add("last_refresh_completed", "gauge",
+                "Whether the latest refresh of the mirror ran to completion.", labels, lastCompleted ? 1 : 0);
+        }
+        for (Map.Entry<String, long[]> anEntry : operations.entrySet()) {
+            long[] counts = anEntry.getValue();
+            String opLabels = labels("mirror", mirror, "operation", anEntry.getKey());
+            families.add("operations_total", "counter", "Operations attempted by the mirror, by result.",
+                labels("mirror", mirror, "operation", anEntry.getKey(), "result", "succeeded"), counts[0]);
+            families.add("operations_total", "counter", "Operations attempted by the mirror, by result.",
+                labels("mirror", mirror, "operation", anEntry.getKey(), "result", "failed"), counts[1]);
+            families.add("errors_total", "counter", "Errors encountered by the mirror.", opLabels, counts[2]);
+        }
+        for (Map.Entry<String, FileRecord> anEntry : files.entrySet()) {
+            FileRecord record = anEntry.getValue();
+            String fileLabels = labels("mirror", mirror, "file", anEntry.getKey(), "scope", record.scope);
+            if (record.lastSuccessMillis > 0) {
+                families.add("file_last_success_timestamp_seconds", "gauge",
+                    "When the file was last downloaded, or found current, successfully.",
+                    fileLabels, record.lastSuccessMillis / 1000.0);
+            }
+            families.add("file_last_attempt_timestamp_seconds", "gauge",
+                "When the latest attempt to download the file finished.", fileLabels, record.lastAttemptMillis / 1000.0);
+            families.add("file_last_bytes", "gauge",
+                "Bytes transferred by the latest download of the file.", fileLabels, record.lastBytes);
+            families.add("file_last_duration_seconds", "gauge",
+                "How long the latest download of the file took.", fileLabels, record.lastMillis / 1000.0);
+            families.add("file_last_cache_hit", "gauge",
+                "Whether the latest download found the file already current.", fileLabels, record.lastCacheHit ? 1 : 0);
+            if (record.lastExtractMillis >= 0) {
+                families.add("file_last_extraction_seconds", "gauge",
+                    "How long the latest extraction of the file's contents took.",
+                    fileLabels, record.lastExtractMillis / 1000.0);
+            }
+            families.add("file_bytes_total", "counter", "Bytes transferred downloading the file.",
+                fileLabels, record.bytes);
+            families.add("file_cache_hits_total", "counter",
+                "Downloads of the file that found it already current.", fileLabels, record.cacheHits);
+            families.add("file_cache_misses_total", "counter",
+                "Downloads of the file that transferred a new version.", fileLabels, record.cacheMisses);
+            families.add("file_retries_total", "counter", "Retries of downloads of the file.",
+                fileLabels, record.retries);
+        }
+    }
+
+    /*
+     * A label set, from alternating names and values.
+     */
+    private static String labels(String... namesAndValues) {
+        StringBuilder text = new StringBuilder("{");
+        for (int ix = 0; ix + 1 < namesAndValues.length; ix += 2) {
+            if (ix > 0) {
+                text.append(',');
+            }
+            text.append(namesAndValues[ix]).append("=\"");
+            String value = namesAndValues[ix + 1];
+            for (int cx = 0; cx < value.length(); cx++) {
+                char c = value.charAt(cx);
+                if (c == '\\' || c == '"') {
+                    text.append('\\').append(c);
+                } else if (c == '\n') {
+                    text.append("\\n");
+                } else {
+                    text.append(c);
+                }
+            }
+            text.append('"');
+        }
+        return text.append('}').toString();
+    }
+
+    /*
+     * What the mirror's refreshes have learned about one planned file.
+     */
+    private static class FileRecord {
+        String scope = "";
+        long lastSuccessMillis = 0;
+        long lastAttemptMillis = 0;
+        long lastBytes = 0;
+        long lastMillis = 0;
+        long lastExtractMillis = -1;
+        boolean lastCacheHit = false;
+        long bytes = 0;
+        long cacheHits = 0;
+        long cacheMisses = 0;
+        long retries = 0;
+
+        void add(NistDataMirror.FileMetrics metrics) {
+            scope = metrics.scope().name().toLowerCase();
+            lastAttemptMillis = metrics.stopTimeMillis();
+            lastBytes = metrics.bytes();
+            lastMillis = metrics.wallMillis();
+            lastExtractMillis = metrics.extractMillis();
+            lastCacheHit = metrics.cacheHit();
+            bytes += metrics.bytes();
+            retries += metrics.retries();
+            if (metrics.succeeded()) {
+                lastSuccessMillis = metrics.stopTimeMillis();
+                if (metrics.cacheHit()) {
+                    cacheHits += 1;
+                } else {
+                    cacheMisses += 1;
+                }
+            }
+        }
+    }
+
+    /*
+     * The samples of each metric, grouped under the metric's description as the
+     * exposition format requires, in the order the metrics were first added.
+     */
+    private static class Families {
+        private final Map<String, StringBuilder> families = new LinkedHashMap<String, StringBuilder>();
+
+        void add(String name, String type, String help, String labels, double value) {
+            StringBuilder family = families.get(name);
+            if (family == null) {
+                family = new StringBuilder();
+                family.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+                family.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+                families.put(name, family);
+            }
+            family.append(PREFIX).append(name).append(labels).append(' ').append(format(value)).append('\n');
+        }
+
+        private static String format(double value) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                return Double.isNaN(value) ? "NaN" : (value > 0) ? "+Inf" : "-Inf";
+            }
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                return String.valueOf((long) value);
+            }
+            return BigDecimal.valueOf(value).toPlainString();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (StringBuilder aFamily : families.values()) {
+                text.append(aFamily);
+            }
+            return text.toString();
+        }
+    }
+}
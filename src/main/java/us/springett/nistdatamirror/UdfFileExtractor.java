@@ -19,8 +19,15 @@ package us.springett.nistdatamirror;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
+import us.springett.nistdatamirror.internal.AtomicFiles;
+import us.springett.nistdatamirror.internal.Digests;
 import us.springett.nistdatamirror.internal.MemoryProbe;
+import us.springett.nistdatamirror.internal.StreamUtil;
 import us.springett.nistdatamirror.internal.Udf;
 import us.springett.nistdatamirror.internal.KaitaiStream;
 
@@ -147,11 +154,6 @@ public class UdfFileExtractor extends FileExtractor {
 
     // private elements
 
-    private interface ExtentProcess {
-        public void processBytes(byte[] b) throws java.io.IOException;
-    }
-
-
     private class UdfVolumeInfo {
         private Udf.PartitionDescBody partitionDescriptor;
         private Udf.LogicalVolumeDescBody logicalVolDescriptorBody;
@@ -255,7 +257,10 @@ public class UdfFileExtractor extends FileExtractor {
         long icbStreamLimit = icbStreamPos + fileIdDesc.icbAd().extentLength();
         int recordedEntriesCount = 0;
         int maxRecordedEntriesCount = -1;
-        FileOutputStream targetStream = new FileOutputStream(targetFile);
+        // Readers keep seeing any earlier version until the new one is complete.
+        File stagedFile = AtomicFiles.stage(targetFile);
+        FileOutputStream targetStream = new FileOutputStream(stagedFile);
+        Digests digests = startDigests();
         boolean captured = false;
         try {
             discFs._io().seek(icbStreamPos);
@@ -287,10 +292,8 @@ public class UdfFileExtractor extends FileExtractor {
                             thisEntry.informationLength(), 
                             discFs, 
                             volInfo.partitionDescriptor().partitionStartingLocation(), 
-                            (byte[] buf) -> {
-                                myAnnunciator.busyPrint();
-                                targetStream.write(buf);
-                            }
+                            targetStream.getChannel(),
+                            digests
                         );
                         recordedEntriesCount += 1;
                         break;
@@ -338,9 +341,11 @@ public class UdfFileExtractor extends FileExtractor {
             targetStream.close();
             if (!captured) {
                 myAnnunciator.announce("Removing partially-extracted file " + targetFile + ".");
-                targetFile.delete();
+                stagedFile.delete();
             }
         }
+        AtomicFiles.publish(stagedFile, targetFile);
+        recordExtracted(targetFile, digests);
         recursivelyExtractFile(targetFile, recursion);
     }
 
@@ -421,14 +426,18 @@ public class UdfFileExtractor extends FileExtractor {
             long bytesLeft, 
             Udf udfFileSys, 
             long partitionLoc, 
-            ExtentProcess toDo
+            FileChannel target,
+            Digests digests
         ) throws java.io.IOException {
 
         long savedPos = udfFileSys._io().pos();
         KaitaiStream adsStream = new KaitaiStream(ads);
-        byte[] chunk = null;
+        ByteBuffer zeros = null;
         long bytesToRead = bytesLeft;
         final int maxChunkSize = MemoryProbe.maxChunkSizeScaledDn();
+        // Recorded extents are copied from the image file by the operating system, unless
+        // they are being digested.
+        FileChannel source = FileChannel.open(myFile.toPath(), StandardOpenOption.READ);
         try {
             while (adsStream.pos() < adsStream.size() && bytesToRead > 0) {
                 Udf.ShortAd anAllocDesc = new Udf.ShortAd(adsStream);
@@ -440,30 +449,33 @@ public class UdfFileExtractor extends FileExtractor {
                 switch(anAllocDesc.extentType()) {
                     case EXTENT_RECORDED_ALLOCATED:
                         {
-                            long bytesToWrite = limit;
-                            udfFileSys._io().seek(extentPos);
-                            while (bytesToWrite > 0) {
-                                int chunkSize = (bytesToWrite >= maxChunkSize) ? maxChunkSize : (int) bytesToWrite;
-                                chunk = udfFileSys._io().readBytes(chunkSize);
-                                // process the extent
-                                toDo.processBytes(chunk);
-                                bytesToWrite -= chunkSize;
+                            source.position(extentPos);
+                            long targetPos = target.position();
+                            long copied = StreamUtil.transferUntilEof(source, target, targetPos, limit, null,
+                                (long got) -> myAnnunciator.busyPrint(), digests);
+                            target.position(targetPos + copied);
+                            if (copied < limit) {
+                                throw new IOException("Invalid UDF format - extent extends past the end of " 
+                                    + myFile + ".");
                             }
                         }
                         break;
                     case EXTENT_ALLOCATED_BUT_NOT_RECORDED:
                         {
-                            int lastSize = 0;
                             long bytesToWrite = limit;
                             while (bytesToWrite > 0) {
                                 int chunkSize = (bytesToWrite >= maxChunkSize) ? maxChunkSize : (int) bytesToWrite;
-                                if (chunkSize != lastSize) {
-                                    chunk = new byte[chunkSize];
-                                    java.util.Arrays.fill(chunk, (byte) 0);
-                                    lastSize = chunkSize;
+                                if (zeros == null || zeros.capacity() < chunkSize) {
+                                    zeros = ByteBuffer.allocateDirect(chunkSize);
                                 }
-                                // process the extent
-                                toDo.processBytes(chunk);
+                                ((Buffer) zeros).clear().limit(chunkSize);
+                                if (digests != null) {
+                                    digests.update(zeros);
+                                }
+                                while (zeros.hasRemaining()) {
+                                    target.write(zeros);
+                                }
+                                myAnnunciator.busyPrint();
                                 bytesToWrite -= chunkSize;
                             }
                         }
@@ -475,7 +487,8 @@ public class UdfFileExtractor extends FileExtractor {
                 bytesToRead -= limit;
             }
         } finally {
-            chunk = null;
+            zeros = null;
+            source.close();
             adsStream.close();
             udfFileSys._io().seek(savedPos);
         }
@@ -26,6 +26,8 @@ import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import java.util.Enumeration;
 
+import us.springett.nistdatamirror.internal.AtomicFiles;
+import us.springett.nistdatamirror.internal.Digests;
 import us.springett.nistdatamirror.internal.StreamUtil;
 
 /**
@@ -117,6 +119,7 @@ public class ZipFileExtractorWApache extends FileExtractor {
                     while (entryEnum.hasMoreElements()) {
                         InputStream entryStream = null;
                         FileOutputStream outStr = null;
+                        File staged = null;
                         try {
                             ZipArchiveEntry anEntry = entryEnum.nextElement();
                             File outFile = new File(outDir, anEntry.getName());
@@ -124,15 +127,18 @@ public class ZipFileExtractorWApache extends FileExtractor {
                             if (anEntry.isDirectory()) {
                                 outFile.mkdirs();
                             } else {
-                                if (outFile.isFile()) {
-                                    outFile.delete();
-                                }
-                                outFile.createNewFile();
-                                outStr = new FileOutputStream(outFile);
+                                // Readers keep seeing any earlier version until the new one is complete.
+                                outFile.getParentFile().mkdirs();
+                                staged = AtomicFiles.stage(outFile);
+                                outStr = new FileOutputStream(staged);
                                 entryStream = zf.getInputStream(anEntry);
-                                StreamUtil.streamUntilEof(entryStream, outStr, anEntry.getSize(), myAnnunciator);
+                                Digests digests = startDigests();
+                                StreamUtil.transferUntilEof(entryStream, outStr.getChannel(), 0, 
+                                    anEntry.getSize(), myAnnunciator, digests);
                                 outStr.close();
                                 entryStream.close();
+                                AtomicFiles.publish(staged, outFile);
+                                recordExtracted(outFile, digests);
                                 recursivelyExtractFile(outFile, recursion);
                             }
                         } finally {
@@ -140,6 +146,8 @@ public class ZipFileExtractorWApache extends FileExtractor {
                                 outStr.close();
                             if (entryStream != null)
                                 entryStream.close();
+                            if (staged != null)
+                                staged.delete();
                         }
                     }
                 } catch (IOException|IllegalArgumentException e){
@@ -0,0 +1,177 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import us.springett.nistdatamirror.Annunciator;
+
+/**
+ * Decides how many downloads may be in flight at once, adjusting the number as the
+ * downloads proceed, in the manner of TCP's additive-increase, multiplicative-decrease
+ * congestion control.
+ * <p>
+ * Downloads take a permit with <code>acquire</code> before they start and return it
+ * with <code>release</code>, and the bytes they receive are reported with
+ * <code>recordBytes</code>.  Every sampling period the controller compares the
+ * aggregate throughput with that of the previous period:
+ * <ul>
+ * <li>if the throughput rose appreciably while every permit was in use, one more
+ *     download is allowed;</li>
+ * <li>if the throughput fell while each download's share of it fell too, one fewer
+ *     download is allowed;</li>
+ * <li>if the server signals overload, such as with a 429 or 503 response, or resets
+ *     a connection, the number of downloads is halved, at most once per period.</li>
+ * </ul>
+ * Each change is reported, with the throughput that prompted it, to the Annunciator.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class AdaptiveConcurrency {
+
+    /**
+     * The default length of a sampling period, in milliseconds.
+     */
+    public static final long DEFAULT_SAMPLE_MILLIS = 2000;
+
+    private static final double IMPROVEMENT = 1.10;
+    private static final double DECLINE = 0.90;
+
+    private final int maxLimit;
+    private final long sampleMillis;
+    private final Annunciator annunciator;
+    private int limit;
+    private int inFlight = 0;
+    private int peakInFlight = 0;
+    private long bytes = 0;
+    private long sampleStart;
+    private long lastDecrease = 0;
+    private double lastThroughput = -1;
+    private double lastPerStream = -1;
+
+    /**
+     * Create a controller.
+     *
+     * @param   initial         the number of downloads allowed at first
+     * @param   max             the greatest number of downloads ever allowed
+     * @param   sampleMillis    the length of a sampling period, in milliseconds
+     * @param   an              the Annunciator to which to report changes, or null
+     */
+    public AdaptiveConcurrency(int initial, int max, long sampleMillis, Annunciator an) {
+        this.maxLimit = Math.max(1, max);
+        this.limit = Math.max(1, Math.min(initial, maxLimit));
+        this.sampleMillis = sampleMillis;
+        this.annunciator = an;
+        this.sampleStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Return the number of downloads currently allowed.
+     *
+     * @return  the limit
+     */
+    public synchronized int limit() {
+        return limit;
+    }
+
+    /**
+     * Wait until another download is allowed, and take a permit for it.
+     *
+     * @throws InterruptedException     when the thread is interrupted while waiting.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= limit) {
+            wait();
+        }
+        inFlight += 1;
+        peakInFlight = Math.max(peakInFlight, inFlight);
+    }
+
+    /**
+     * Return the permit of a download that has finished, successfully or not.
+     */
+    public synchronized void release() {
+        inFlight -= 1;
+        notifyAll();
+    }
+
+    /**
+     * Report bytes received by any download.
+     *
+     * @param   count   the number of bytes received
+     */
+    public synchronized void recordBytes(long count) {
+        bytes += count;
+        long now = System.currentTimeMillis();
+        if (now - sampleStart >= sampleMillis) {
+            sample(now);
+        }
+    }
+
+    /**
+     * Report that the server is overloaded, so that fewer downloads are allowed.
+     *
+     * @param   reason  a description of the signal, for reporting
+     */
+    public synchronized void congestion(String reason) {
+        long now = System.currentTimeMillis();
+        if (now - lastDecrease < sampleMillis) {
+            // One halving per period, however many downloads saw the same overload.
+            return;
+        }
+        lastDecrease = now;
+        if (limit > 1) {
+            setLimit(Math.max(1, limit / 2), "server overloaded (" + reason + ")");
+        }
+        lastThroughput = -1;
+        lastPerStream = -1;
+    }
+
+    // Private implementation
+
+    private void sample(long now) {
+        double throughput = bytes * 1000.0 / (now - sampleStart);
+        double perStream = throughput / Math.max(1, peakInFlight);
+        boolean saturated = peakInFlight >= limit;
+        if (lastThroughput >= 0) {
+            if (throughput > lastThroughput * IMPROVEMENT && saturated && limit < maxLimit) {
+                setLimit(limit + 1, throughputString(throughput) + " and rising");
+            } else if (throughput < lastThroughput * DECLINE && perStream < lastPerStream * DECLINE
+                    && limit > 1) {
+                setLimit(limit - 1, throughputString(throughput) + " and falling");
+            }
+        } else if (saturated && limit < maxLimit) {
+            // No comparison yet, so probe upwards.
+            setLimit(limit + 1, throughputString(throughput));
+        }
+        lastThroughput = throughput;
+        lastPerStream = perStream;
+        bytes = 0;
+        peakInFlight = inFlight;
+        sampleStart = now;
+    }
+
+    private void setLimit(int newLimit, String why) {
+        limit = newLimit;
+        notifyAll();
+        if (annunciator != null) {
+            annunciator.announce("Download concurrency now " + limit + ", " + why);
+        }
+    }
+
+    private static String throughputString(double bytesPerSecond) {
+        return String.format("throughput %.2f MiB/s", bytesPerSecond / (1024 * 1024));
+    }
+}
@@ -0,0 +1,115 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Publishes files into the mirror so that readers never see them partially written.
+ * A new version of a file is written to a staging file in the same directory, flushed
+ * to stable storage, and then renamed over the old version in a single atomic step.
+ * Readers that opened the old version keep reading it undisturbed, and readers that
+ * open the file afterwards see the complete new version.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class AtomicFiles {
+
+    /**
+     * Create an empty staging file for a new version of a file.  The staging file is
+     * hidden and resides in the same directory as the file, so that publishing it is a
+     * rename within one file system.
+     *
+     * @param   target  the file of which a new version will be written
+     *
+     * @return  the staging file
+     *
+     * @throws IOException      when the staging file could not be created.
+     */
+    public static File stage(File target) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        return File.createTempFile("." + target.getName() + ".", ".tmp", dir);
+    }
+
+    /**
+     * Replace a file with a staged new version of it.  The staged file is flushed to
+     * stable storage before it is renamed, and the rename is atomic wherever the file
+     * system supports atomic renames.
+     *
+     * @param   staged  the completely-written new version
+     * @param   target  the file to be replaced, which need not exist
+     *
+     * @throws IOException      when an I/O error occurs.
+     */
+    public static void publish(File staged, File target) throws IOException {
+        sync(staged);
+        rename(staged, target);
+    }
+
+    /**
+     * Rename a file over another, atomically wherever the file system supports atomic
+     * renames, without first flushing its contents.  Suits files whose contents are
+     * already on stable storage, such as new links to existing files.
+     *
+     * @param   staged  the file to be renamed
+     * @param   target  the file to be replaced, which need not exist
+     *
+     * @throws IOException      when an I/O error occurs.
+     */
+    public static void rename(File staged, File target) throws IOException {
+        try {
+            Files.move(staged.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(staged.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Flush a file's contents to stable storage.
+     *
+     * @param   aFile   the file to be flushed
+     *
+     * @throws IOException      when an I/O error occurs.
+     */
+    public static void sync(File aFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(aFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    // Private implementation
+
+    /*
+     * Flush a directory so that a rename within it survives a crash.  Not every platform
+     * allows directories to be opened, so failure is not an error.
+     */
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported on this platform
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * A content-addressed store of files, each kept once as a blob named after the SHA-256
+ * digest of its content.  Files in a mirror directory are interned into the store by
+ * replacing them with hard links to their blobs, so that identical content, whether
+ * found in several mirror directories, under several names, or in successive runs,
+ * occupies storage only once.  Several mirror directories on the same file system may
+ * share one store.
+ * <p>
+ * Sharing blobs through hard links is safe because the mirror never rewrites a
+ * published file in place: a refreshed file replaces the old one with a new file,
+ * which is then interned in turn, leaving other links to the old blob unchanged.
+ * Files sharing a blob also share its modification time.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class ContentStore {
+
+    /**
+     * The name of the store's directory in a mirror's sidecar directory when the
+     * mirror keeps a store of its own.
+     */
+    public static final String DEFAULT_DIR_NAME = "objects";
+
+    private final File root;
+
+    /**
+     * Create a store.  Its directory is created when the first file is interned.
+     *
+     * @param   root    the store's directory, which must be on the same file system as
+     *                  the mirror directories whose files are interned
+     */
+    public ContentStore(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Return the store's directory.
+     *
+     * @return  the directory
+     */
+    public File directory() {
+        return root;
+    }
+
+    /**
+     * Return the blob that holds the content with a given digest.
+     *
+     * @param   sha256  the digest of the content, as hexadecimal
+     *
+     * @return  the blob, which exists only if the content is in the store
+     */
+    public File blobFor(String sha256) {
+        String name = sha256.toLowerCase();
+        return new File(new File(root, name.substring(0, 2)), name.substring(2));
+    }
+
+    /**
+     * Determine, without reading it, whether a file is still the interned blob of a
+     * given digest.
+     *
+     * @param   aFile   the file
+     * @param   sha256  the digest with which the file was last interned, or null
+     *
+     * @return  true if and only if the file is a link to that digest's blob
+     */
+    public boolean holds(File aFile, String sha256) {
+        if (sha256 == null || !aFile.isFile()) {
+            return false;
+        }
+        File blob = blobFor(sha256);
+        try {
+            return blob.isFile() && Files.isSameFile(aFile.toPath(), blob.toPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Intern a file, replacing it with a link to the blob of its content.  If the store
+     * does not yet hold the content, the file itself becomes the blob.
+     *
+     * @param   aFile   the file to be interned
+     *
+     * @return  the digest of the file's content, as lower-case hexadecimal
+     *
+     * @throws IOException      when an I/O error occurs, including when the file and the
+     *                          store are on different file systems.
+     */
+    public String intern(File aFile) throws IOException {
+        return intern(aFile, digest(aFile));
+    }
+
+    /**
+     * Intern a file whose digest is already known, as when it was computed while the 
+     * file was written, without reading the file.
+     *
+     * @param   aFile   the file to be interned
+     * @param   sha256  the digest of the file's content, as hexadecimal
+     *
+     * @return  the digest, as lower-case hexadecimal
+     *
+     * @throws IOException      when an I/O error occurs, including when the file and the
+     *                          store are on different file systems.
+     */
+    public String intern(File aFile, String sha256) throws IOException {
+        sha256 = sha256.toLowerCase();
+        File blob = blobFor(sha256);
+        if (blob.isFile()) {
+            if (!Files.isSameFile(aFile.toPath(), blob.toPath())) {
+                File staged = AtomicFiles.stage(aFile);
+                try {
+                    Files.delete(staged.toPath());
+                    Files.createLink(staged.toPath(), blob.toPath());
+                    AtomicFiles.rename(staged, aFile);
+                } finally {
+                    staged.delete();
+                }
+            }
+        } else {
+            File dir = blob.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Could not create store directory " + dir + ".");
+            }
+            File staged = AtomicFiles.stage(blob);
+            try {
+                Files.delete(staged.toPath());
+                Files.createLink(staged.toPath(), aFile.toPath());
+                AtomicFiles.rename(staged, blob);
+            } finally {
+                staged.delete();
+            }
+        }
+        return sha256;
+    }
+
+    /**
+     * Intern every regular file in a directory tree, or a single file.
+     *
+     * @param   aRoot   the file, or the root of the directory tree
+     *
+     * @return  the number of files interned
+     *
+     * @throws IOException      when an I/O error occurs.
+     */
+    public long internTree(File aRoot) throws IOException {
+        return internTree(aRoot, null);
+    }
+
+    /**
+     * Intern every regular file in a directory tree, or a single file, using the digests
+     * already known for some of the files rather than reading them.
+     *
+     * @param   aRoot   the file, or the root of the directory tree
+     * @param   known   the known digests, as hexadecimal, keyed by the absolute, normalized
+     *                  paths of their files; may be null
+     *
+     * @return  the number of files interned
+     *
+     * @throws IOException      when an I/O error occurs.
+     */
+    public long internTree(File aRoot, Map<File, String> known) throws IOException {
+        long[] count = new long[] {0};
+        Files.walkFileTree(aRoot.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path aFile, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile()) {
+                    String sha256 = (known == null) ? null : known.get(aFile.toAbsolutePath().normalize().toFile());
+                    if (sha256 == null) {
+                        intern(aFile.toFile());
+                    } else {
+                        intern(aFile.toFile(), sha256);
+                    }
+                    count[0] += 1;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Remove the blobs that no file links to any longer.  Requires a file system that
+     * reports link counts; elsewhere the method removes nothing.
+     *
+     * @return  the number of blobs removed
+     *
+     * @throws IOException      when an I/O error occurs.
+     */
+    public long prune() throws IOException {
+        if (!root.isDirectory()) {
+            return 0;
+        }
+        long[] count = new long[] {0};
+        Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path aFile, BasicFileAttributes attrs) throws IOException {
+                Object links;
+                try {
+                    links = Files.getAttribute(aFile, "unix:nlink");
+                } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                    return FileVisitResult.TERMINATE;
+                }
+                if (links instanceof Integer && (Integer) links == 1 && !aFile.getFileName().toString().startsWith(".")) {
+                    Files.deleteIfExists(aFile);
+                    count[0] += 1;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count[0];
+    }
+
+    // Private implementation
+
+    private static String digest(File aFile) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream inS = new FileInputStream(aFile)) {
+            int count;
+            while ((count = inS.read(buf)) > 0) {
+                md.update(buf, 0, count);
+            }
+        }
+        return NvdMeta.toHex(md.digest()).toLowerCase();
+    }
+}
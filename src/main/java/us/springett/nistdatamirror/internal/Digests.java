@@ -0,0 +1,201 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes several digests of the same bytes at once, as they pass through a copy, so
+ * that the integrity of a file can be checked later without reading it again.  The
+ * SHA-256 digest is always computed; SHA-1 and MD5 digests may be computed as well.
+ * <p>
+ * Algorithms are named as they are on the command line and in sidecars:
+ * <code>sha256</code>, <code>sha1</code> and <code>md5</code>.  Digests are
+ * reported as lower-case hexadecimal, as <code>sha256sum</code> and its kin print them.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class Digests {
+
+    /**
+     * The name of the digest that is always computed.
+     */
+    public static final String SHA256 = "sha256";
+
+    private static final Map<String, String> ALGORITHMS = new LinkedHashMap<String, String>();
+    static {
+        ALGORITHMS.put(SHA256, "SHA-256");
+        ALGORITHMS.put("sha1", "SHA-1");
+        ALGORITHMS.put("md5", "MD5");
+    }
+
+    private final List<String> names;
+    private final List<MessageDigest> digests;
+    private Map<String, String> values = null;
+
+    /**
+     * Start computing digests.
+     *
+     * @param   algorithms  the names of the digests to compute in addition to SHA-256;
+     *                      may be empty or null
+     *
+     * @throws IllegalArgumentException     when an algorithm is unknown.
+     */
+    public Digests(Collection<String> algorithms) {
+        names = new ArrayList<String>();
+        names.add(SHA256);
+        if (algorithms != null) {
+            for (String aName : algorithms) {
+                if (!ALGORITHMS.containsKey(aName)) {
+                    throw new IllegalArgumentException("Unknown digest algorithm \"" + aName + "\".");
+                }
+                if (!names.contains(aName)) {
+                    names.add(aName);
+                }
+            }
+        }
+        digests = new ArrayList<MessageDigest>(names.size());
+        for (String aName : names) {
+            try {
+                digests.add(MessageDigest.getInstance(ALGORITHMS.get(aName)));
+            } catch (NoSuchAlgorithmException e) {
+                // every Java platform is required to provide these
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Parse a comma-separated list of digest names, such as <code>sha256,md5</code>.
+     *
+     * @param   spec    the list
+     *
+     * @return  the names, in the order given, without duplicates
+     *
+     * @throws IllegalArgumentException     when a name is unknown.
+     */
+    public static List<String> parse(String spec) {
+        List<String> parsed = new ArrayList<String>();
+        for (String aName : spec.split(",")) {
+            String name = aName.trim().toLowerCase().replace("-", "");
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!ALGORITHMS.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown digest algorithm \"" + aName.trim() + "\".");
+            }
+            if (!parsed.contains(name)) {
+                parsed.add(name);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Return the names of the digests being computed.
+     *
+     * @return  the names, SHA-256 first
+     */
+    public List<String> algorithms() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Digest the bytes remaining in a buffer, leaving its position unchanged.
+     *
+     * @param   bb      the buffer
+     */
+    public void update(ByteBuffer bb) {
+        for (MessageDigest md : digests) {
+            md.update(bb.duplicate());
+        }
+    }
+
+    /**
+     * Digest part of an array.
+     *
+     * @param   b       the array
+     * @param   off     the offset of the first byte to digest
+     * @param   len     the number of bytes to digest
+     */
+    public void update(byte[] b, int off, int len) {
+        for (MessageDigest md : digests) {
+            md.update(b, off, len);
+        }
+    }
+
+    /**
+     * Digest the first bytes of a file, as when a copy resumes after them.
+     *
+     * @param   aFile   the file
+     * @param   length  the number of bytes to digest
+     *
+     * @throws IOException      when the file is shorter, or when an I/O error occurs.
+     */
+    public void update(File aFile, long length) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        long remaining = length;
+        try (InputStream inS = new FileInputStream(aFile)) {
+            while (remaining > 0) {
+                int count = inS.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (count < 0) {
+                    throw new IOException(aFile + " ended " + remaining + " bytes short of " + length + ".");
+                }
+                update(buf, 0, count);
+                remaining -= count;
+            }
+        }
+    }
+
+    /**
+     * Finish computing the digests.  Later updates are ignored, and calling the method
+     * again returns the same digests.
+     *
+     * @return  the digests as lower-case hexadecimal, keyed by their names
+     */
+    public synchronized Map<String, String> values() {
+        if (values == null) {
+            Map<String, String> finished = new LinkedHashMap<String, String>();
+            for (int ix = 0; ix < names.size(); ix++) {
+                finished.put(names.get(ix), NvdMeta.toHex(digests.get(ix).digest()).toLowerCase());
+            }
+            values = Collections.unmodifiableMap(finished);
+        }
+        return values;
+    }
+
+    /**
+     * Finish computing the digests and return the SHA-256 digest.
+     *
+     * @return  the digest as lower-case hexadecimal
+     */
+    public String sha256() {
+        return values().get(SHA256);
+    }
+}
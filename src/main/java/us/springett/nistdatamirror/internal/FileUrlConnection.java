@@ -0,0 +1,228 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Serves a <code>file:</code> URL as a web server would serve the file, so that a
+ * directory, such as another mirror's directory on a shared file system, can stand in
+ * for an HTTP upstream.  The connection answers conditional requests with
+ * <code>Last-Modified</code> and <code>If-Modified-Since</code>, honours single byte
+ * ranges with <code>If-Range</code>, and reports a missing file as 404, so that the
+ * mirror's revalidation, resumption and segmented downloads all work unchanged.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+class FileUrlConnection extends HttpURLConnection {
+
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private final Map<String, String> responseHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+    private File file;
+    private long start = 0;
+    private long count = -1;
+    private InputStream opened = null;
+
+    FileUrlConnection(URL url) {
+        super(url);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected) {
+            return;
+        }
+        // Request properties can no longer be read once connected.
+        String ifModifiedSince = getRequestProperty("If-Modified-Since");
+        String range = getRequestProperty("Range");
+        String ifRange = getRequestProperty("If-Range");
+        connected = true;
+        try {
+            file = new File(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Not a local file: " + url, e);
+        }
+        if (!file.isFile()) {
+            respond(HTTP_NOT_FOUND, "Not Found");
+            return;
+        }
+        long length = file.length();
+        // HTTP dates have a resolution of one second.
+        long modified = file.lastModified() / 1000 * 1000;
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+            ZonedDateTime.ofInstant(Instant.ofEpochMilli(modified), ZoneOffset.UTC));
+        responseHeaders.put("Last-Modified", lastModified);
+        responseHeaders.put("Accept-Ranges", "bytes");
+        Long since = parseDate(ifModifiedSince);
+        if (since != null && modified <= since) {
+            respond(HTTP_NOT_MODIFIED, "Not Modified");
+            return;
+        }
+        if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0
+                && (ifRange == null || ifRange.equals(lastModified))) {
+            String[] bounds = range.substring(6).split("-", 2);
+            try {
+                long first = Long.parseLong(bounds[0].trim());
+                long last = (bounds.length < 2 || bounds[1].trim().isEmpty())
+                    ? length - 1 : Math.min(length - 1, Long.parseLong(bounds[1].trim()));
+                if (first >= length || last < first) {
+                    responseHeaders.put("Content-Range", "bytes */" + length);
+                    respond(HTTP_RANGE_NOT_SATISFIABLE, "Range Not Satisfiable");
+                    return;
+                }
+                start = first;
+                count = last - first + 1;
+                responseHeaders.put("Content-Range", "bytes " + first + "-" + last + "/" + length);
+                responseHeaders.put("Content-Length", String.valueOf(count));
+                respond(HTTP_PARTIAL, "Partial Content");
+                return;
+            } catch (NumberFormatException e) {
+                // an unintelligible range is ignored, as a server would
+            }
+        }
+        count = length;
+        responseHeaders.put("Content-Length", String.valueOf(count));
+        respond(HTTP_OK, "OK");
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        connect();
+        return responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        connect();
+        return responseMessage;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        try {
+            connect();
+        } catch (IOException e) {
+            return null;
+        }
+        return (name == null) ? null : responseHeaders.get(name);
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        String length = getHeaderField("Content-Length");
+        return (length == null) ? -1 : Long.parseLong(length);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        connect();
+        if (responseCode >= 400) {
+            throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+        }
+        if (count <= 0 || "HEAD".equals(method) || responseCode == HTTP_NOT_MODIFIED) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        if (opened != null) {
+            return opened;
+        }
+        FileInputStream inS = new FileInputStream(file);
+        inS.getChannel().position(start);
+        opened = new FilterInputStream(inS) {
+            private long remaining = count;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b >= 0) {
+                    remaining -= 1;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int n = super.read(b, off, (int) Math.min(len, remaining));
+                if (n > 0) {
+                    remaining -= n;
+                }
+                return n;
+            }
+        };
+        return opened;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return (responseCode >= 400) ? new ByteArrayInputStream(new byte[0]) : null;
+    }
+
+    @Override
+    public void disconnect() {
+        if (opened != null) {
+            try {
+                opened.close();
+            } catch (IOException e) {
+                // nothing more to release
+            }
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    // Private implementation
+
+    private void respond(int code, String message) {
+        responseCode = code;
+        responseMessage = message;
+    }
+
+    private static Long parseDate(String aDate) {
+        if (aDate == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(aDate, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
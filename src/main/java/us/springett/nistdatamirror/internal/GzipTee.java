@@ -0,0 +1,284 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Inflates a GZip-compressed file while it is being downloaded, so that its
+ * uncompressed content is ready as soon as the download is, without a second pass
+ * that reads the compressed copy back from disk.
+ * <p>
+ * The stream returned by <code>tee</code> copies every byte that the download reads
+ * into a pipe, from which a background thread inflates them into a file, computing
+ * the digests of the uncompressed content as it goes.  The tee never fails the
+ * download itself: should inflation fail, the tee stops copying and <code>finish</code>
+ * reports that it did not complete, leaving the caller to extract the compressed copy
+ * in the usual way.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class GzipTee {
+
+    /**
+     * The size, in bytes, of the pipe between the download and the inflating thread.
+     */
+    public static final int PIPE_SIZE = 1024 * 1024;
+
+    private final File inflatedFile;
+    private final PipedInputStream pipeIn;
+    private final PipedOutputStream pipeOut;
+    private final ExecutorService inflater;
+    private final Digests digests;
+    private final Future<?> inflation;
+    private volatile boolean broken = false;
+    private volatile long inflateNanos = 0;
+    private volatile long inflatedBytes = 0;
+    private Boolean completed = null;
+
+    /**
+     * Start inflating.  Nothing is written until bytes are read through the stream
+     * returned by <code>tee</code>.
+     *
+     * @param   inflatedFile    the file into which to write the uncompressed content.
+     *                          Any existing file of that name is replaced.
+     *
+     * @throws IOException      when the pipe could not be created.
+     */
+    public GzipTee(File inflatedFile) throws IOException {
+        this(inflatedFile, null);
+    }
+
+    /**
+     * Start inflating, computing further digests of the uncompressed content besides
+     * its SHA-256 digest.
+     *
+     * @param   inflatedFile    the file into which to write the uncompressed content.
+     *                          Any existing file of that name is replaced.
+     * @param   algorithms      the names of the digests to compute in addition to SHA-256;
+     *                          may be empty or null
+     *
+     * @throws IOException      when the pipe could not be created.
+     */
+    public GzipTee(File inflatedFile, Collection<String> algorithms) throws IOException {
+        this.inflatedFile = inflatedFile;
+        this.digests = new Digests(algorithms);
+        this.pipeIn = new PipedInputStream(PIPE_SIZE);
+        this.pipeOut = new PipedOutputStream(pipeIn);
+        this.inflater = Executors.newSingleThreadExecutor();
+        this.inflation = inflater.submit(() -> inflate());
+        inflater.shutdown();
+    }
+
+    /**
+     * Return the file into which the tee writes the uncompressed content.
+     *
+     * @return  the file
+     */
+    public File file() {
+        return inflatedFile;
+    }
+
+    /**
+     * Wrap the stream from which the compressed content is downloaded, so that the
+     * bytes read from it are also inflated.
+     *
+     * @param   inS     the stream of compressed content
+     *
+     * @return  a stream that yields the same bytes as the wrapped one
+     */
+    public InputStream tee(InputStream inS) {
+        return new FilterInputStream(inS) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    copy(new byte[] {(byte) b}, 0, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+                if (count > 0) {
+                    copy(b, off, count);
+                }
+                return count;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                // Skipped bytes would never reach the inflater.
+                broken = true;
+                return super.skip(n);
+            }
+        };
+    }
+
+    /**
+     * Wait for the inflating thread to consume all that the download read, once the
+     * download is complete.  If inflation did not complete, the partially-written
+     * uncompressed file is removed.  Calling the method again returns the same result.
+     *
+     * @return  true if and only if the whole compressed content was inflated into the file
+     */
+    public synchronized boolean finish() {
+        if (completed == null) {
+            closePipe();
+            try {
+                inflation.get();
+                completed = !broken;
+            } catch (ExecutionException e) {
+                completed = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                completed = false;
+            }
+            if (!completed) {
+                inflatedFile.delete();
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Return the SHA-256 digest of the uncompressed content, once inflation completed.
+     *
+     * @return  the digest as hexadecimal, or null if inflation did not complete
+     */
+    public synchronized String sha256() {
+        return (completed != null && completed) ? digests.sha256() : null;
+    }
+
+    /**
+     * Return the digests of the uncompressed content, once inflation completed.
+     *
+     * @return  the digests as hexadecimal, keyed by their names, or null if inflation 
+     *          did not complete
+     */
+    public synchronized Map<String, String> digests() {
+        return (completed != null && completed) ? digests.values() : null;
+    }
+
+    /**
+     * Return how long the inflating thread spent inflating and writing, excluding the
+     * time it spent waiting for the download to deliver compressed bytes.
+     *
+     * @return  the time in nanoseconds, or zero if inflation did not complete
+     */
+    public synchronized long inflateNanos() {
+        return (completed != null && completed) ? inflateNanos : 0;
+    }
+
+    /**
+     * Return the number of uncompressed bytes written, once inflation completed.
+     *
+     * @return  the count, or zero if inflation did not complete
+     */
+    public synchronized long inflatedBytes() {
+        return (completed != null && completed) ? inflatedBytes : 0;
+    }
+
+    /**
+     * Give up on the tee, removing the uncompressed file unless it has since been
+     * moved elsewhere.
+     */
+    public void discard() {
+        broken = true;
+        finish();
+        inflatedFile.delete();
+    }
+
+    // Private implementation
+
+    private void copy(byte[] b, int off, int len) {
+        if (broken) {
+            return;
+        }
+        try {
+            pipeOut.write(b, off, len);
+        } catch (IOException e) {
+            // The inflater gave up and closed its end of the pipe.
+            broken = true;
+        }
+    }
+
+    private void closePipe() {
+        try {
+            pipeOut.close();
+        } catch (IOException e) {
+            broken = true;
+        }
+    }
+
+    /*
+     * Runs on the inflating thread, digesting the uncompressed content as it is written.
+     */
+    private Void inflate() throws IOException {
+        long[] waited = new long[] {0};
+        InputStream timedPipe = new FilterInputStream(pipeIn) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                try {
+                    return super.read();
+                } finally {
+                    waited[0] += System.nanoTime() - start;
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    return super.read(b, off, len);
+                } finally {
+                    waited[0] += System.nanoTime() - start;
+                }
+            }
+        };
+        long start = System.nanoTime();
+        try (InputStream gzis = new GZIPInputStream(timedPipe, 64 * 1024);
+                FileChannel out = FileChannel.open(inflatedFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            inflatedBytes = StreamUtil.transferUntilEof(gzis, out, 0, -1, null, digests);
+            if (pipeIn.read() >= 0) {
+                throw new IOException("Unexpected data follows the compressed content.");
+            }
+            inflateNanos = Math.max(0, System.nanoTime() - start - waited[0]);
+        } finally {
+            // Unblocks the download should the inflater stop early.
+            pipeIn.close();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a server answers a request with a status that the mirror cannot use.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The HTTP status code with which the server answered, 429 "Too Many Requests".
+     */
+    public static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int code;
+
+    /**
+     * Constructor.
+     *
+     * @param   code    the HTTP status code with which the server answered
+     * @param   msg     a description of the failure
+     */
+    public HttpStatusException(int code, String msg) {
+        super(msg);
+        this.code = code;
+    }
+
+    /**
+     * Return the HTTP status code with which the server answered.
+     *
+     * @return  the status code
+     */
+    public int code() {
+        return code;
+    }
+
+    /**
+     * Indicate whether the status asks the client to slow down: 429 "Too Many
+     * Requests" or 503 "Service Unavailable".
+     *
+     * @return  true if and only if the server is shedding load
+     */
+    public boolean isOverload() {
+        return code == HTTP_TOO_MANY_REQUESTS || code == java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+    }
+}
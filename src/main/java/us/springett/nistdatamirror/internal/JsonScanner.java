@@ -0,0 +1,295 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A minimal streaming reader of JSON text, sufficient for walking NIST's JSON feeds
+ * without holding them in memory.  It steps through objects and arrays, reads
+ * strings, and either skips values or returns their exact text, so that parts of a
+ * document it has no need to understand can be copied through unchanged.
+ * <p>
+ * The reader is lenient about the placement of commas, which it treats as separators
+ * to be skipped, and it does not validate numbers or literals.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class JsonScanner implements Closeable {
+
+    private static final int NONE = -2;
+
+    private final Reader in;
+    private int peeked = NONE;
+    private StringBuilder capture = null;
+
+    /**
+     * Create a scanner.
+     *
+     * @param   in      the JSON text, which should be buffered
+     */
+    public JsonScanner(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Consume the start of an object.
+     *
+     * @throws IOException      when the next value is not an object, or when an I/O error occurs.
+     */
+    public void beginObject() throws IOException {
+        expect('{');
+    }
+
+    /**
+     * Consume the end of an object.
+     *
+     * @throws IOException      when the object has further members, or when an I/O error occurs.
+     */
+    public void endObject() throws IOException {
+        expect('}');
+    }
+
+    /**
+     * Consume the start of an array.
+     *
+     * @throws IOException      when the next value is not an array, or when an I/O error occurs.
+     */
+    public void beginArray() throws IOException {
+        expect('[');
+    }
+
+    /**
+     * Consume the end of an array.
+     *
+     * @throws IOException      when the array has further elements, or when an I/O error occurs.
+     */
+    public void endArray() throws IOException {
+        expect(']');
+    }
+
+    /**
+     * Determine whether the current object or array has another member or element.
+     *
+     * @return  true if and only if another member or element follows
+     *
+     * @throws IOException      when an I/O error occurs.
+     */
+    public boolean hasNext() throws IOException {
+        int c = peekNonSpace();
+        if (c == ',') {
+            next();
+            c = peekNonSpace();
+        }
+        if (c < 0) {
+            throw new IOException("Unexpected end of JSON text.");
+        }
+        return c != '}' && c != ']';
+    }
+
+    /**
+     * Read the name of the next member of the current object.
+     *
+     * @return  the name
+     *
+     * @throws IOException      when a name does not follow, or when an I/O error occurs.
+     */
+    public String nextName() throws IOException {
+        peekNonSpace();
+        String name = readString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Read a string value.
+     *
+     * @return  the string
+     *
+     * @throws IOException      when a string does not follow, or when an I/O error occurs.
+     */
+    public String nextString() throws IOException {
+        peekNonSpace();
+        return readString();
+    }
+
+    /**
+     * Skip the next value, however deeply nested.
+     *
+     * @throws IOException      when the JSON text is malformed, or when an I/O error occurs.
+     */
+    public void skipValue() throws IOException {
+        peekNonSpace();
+        scanValue();
+    }
+
+    /**
+     * Read the next value, however deeply nested, as the exact JSON text that
+     * represents it.
+     *
+     * @return  the text of the value
+     *
+     * @throws IOException      when the JSON text is malformed, or when an I/O error occurs.
+     */
+    public String rawValue() throws IOException {
+        peekNonSpace();
+        capture = new StringBuilder();
+        try {
+            scanValue();
+            return capture.toString();
+        } finally {
+            capture = null;
+        }
+    }
+
+    /**
+     * Quote a string as a JSON string literal.
+     *
+     * @param   aString     the string
+     *
+     * @return  the literal
+     */
+    public static String quote(String aString) {
+        StringBuilder quoted = new StringBuilder(aString.length() + 2).append('"');
+        for (int ix = 0; ix < aString.length(); ix++) {
+            char c = aString.charAt(ix);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // Private implementation
+
+    private int peek() throws IOException {
+        if (peeked == NONE) {
+            peeked = in.read();
+        }
+        return peeked;
+    }
+
+    private int next() throws IOException {
+        int c = peek();
+        peeked = NONE;
+        if (capture != null && c >= 0) {
+            capture.append((char) c);
+        }
+        return c;
+    }
+
+    private int peekNonSpace() throws IOException {
+        int c = peek();
+        while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+            next();
+            c = peek();
+        }
+        return c;
+    }
+
+    private void expect(char wanted) throws IOException {
+        int c = peekNonSpace();
+        if (c != wanted) {
+            throw new IOException("Malformed JSON text: expected '" + wanted + "' but found "
+                + ((c < 0) ? "the end" : "'" + (char) c + "'") + ".");
+        }
+        next();
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            int c = next();
+            if (c < 0) {
+                throw new IOException("Unterminated JSON string.");
+            } else if (c == '"') {
+                return value.toString();
+            } else if (c == '\\') {
+                int escaped = next();
+                switch (escaped) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        char[] hex = new char[4];
+                        for (int ix = 0; ix < 4; ix++) {
+                            hex[ix] = (char) next();
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(new String(hex), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Malformed JSON escape \\u" + new String(hex) + ".");
+                        }
+                        break;
+                    default:
+                        if (escaped < 0) {
+                            throw new IOException("Unterminated JSON string.");
+                        }
+                        value.append((char) escaped);
+                }
+            } else {
+                value.append((char) c);
+            }
+        }
+    }
+
+    private void scanValue() throws IOException {
+        int c = peek();
+        if (c == '{') {
+            beginObject();
+            while (hasNext()) {
+                nextName();
+                skipValue();
+            }
+            endObject();
+        } else if (c == '[') {
+            beginArray();
+            while (hasNext()) {
+                skipValue();
+            }
+            endArray();
+        } else if (c == '"') {
+            readString();
+        } else {
+            // a number or a literal
+            int length = 0;
+            while (c >= 0 && (Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '.')) {
+                next();
+                c = peek();
+                length += 1;
+            }
+            if (length == 0) {
+                throw new IOException("Malformed JSON text: unexpected "
+                    + ((c < 0) ? "end" : "'" + (char) c + "'") + ".");
+            }
+        }
+    }
+}
@@ -24,6 +24,16 @@ package us.springett.nistdatamirror.internal;
  */
 public class MemoryProbe {
 
+    /**
+     * How long, in milliseconds, the unbounded probe's answer is reused before memory
+     * is probed again.  Probing allocates, and discards, large arrays, which a 
+     * long-running mirror would otherwise do for every file it extracts.
+     */
+    public static final long PROBE_REUSE_MILLIS = 60 * 1000;
+
+    private static volatile Integer lastProbe = null;
+    private static volatile long lastProbeTime = 0;
+
     /**
      * Determine a value that approximates the largest allocation of a group of 
      * contiguious bytes that the JVM can currently provide within stated bounds.
@@ -67,14 +77,22 @@ public class MemoryProbe {
     /**
      * Determine a value that approximates the largest allocation of a group of 
      * contiguious bytes that the JVM can currently provide within the maximum possible
-     * allocation and 16K bytes of memory.
+     * allocation and 16K bytes of memory.  The answer is reused for up to 
+     * PROBE_REUSE_MILLIS.
      *
      * @throws  Error           a run-time error if an allocation within the stated range is not possible.
      * @return                  an Integer size that the JVM can current allocation within the bounds of the 
      *                          method's parameters
      */
     public static Integer maxChunkSize() {
-        return maxChunkSize(Integer.MAX_VALUE, 1024 * 16);
+        long now = System.currentTimeMillis();
+        Integer probed = lastProbe;
+        if (probed == null || now - lastProbeTime > PROBE_REUSE_MILLIS) {
+            probed = maxChunkSize(Integer.MAX_VALUE, 1024 * 16);
+            lastProbe = probed;
+            lastProbeTime = now;
+        }
+        return probed;
     }
 
     /**
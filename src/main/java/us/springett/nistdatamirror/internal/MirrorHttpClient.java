@@ -0,0 +1,380 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single HTTP client through which the mirror makes all of its requests: HEAD
+ * requests, conditional GETs and ranged GETs alike.
+ * <p>
+ * The client relies upon the persistent connections that the Java runtime keeps
+ * for each host, and takes care to use them well.  Its responses, when closed, 
+ * consume what remains of short bodies, including error bodies, so that their 
+ * connections return to the runtime's cache of idle connections rather than being 
+ * torn down.  A full run therefore reuses a handful of connections to each host 
+ * rather than paying TCP and TLS setup for every request.
+ * <p>
+ * The cache holds five connections per host unless the JVM-wide 
+ * <code>http.maxConnections</code> system property says otherwise.  The client leaves
+ * that property to the program that owns the JVM: the command line sets it through
+ * <code>setMaxConnectionsPerHost</code>, and an application embedding the mirror may 
+ * do the same or pass <code>-Dhttp.maxConnections</code> to the JVM.
+ * <p>
+ * The Java 8 runtime that the mirror targets speaks HTTP/1.1 only, so requests are
+ * spread over several pooled connections rather than multiplexed over one.
+ * <p>
+ * <code>file:</code> URLs are served from the local file system with the same
+ * semantics as HTTP, so that a directory can serve as an upstream source.
+ * <p>
+ * So that a half-dead connection cannot hang the mirror, every connection has connect
+ * and read timeouts, and response bodies may be watched for stalls: a body that, over
+ * a whole window of time spent waiting for it, arrives more slowly than a floor rate
+ * fails with a StalledTransferException.  Only time spent blocked on the connection
+ * counts, so a body read slowly on purpose, as through a Throttle, is not mistaken
+ * for a stalled one.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class MirrorHttpClient {
+
+    /**
+     * The largest remaining body, in bytes, that closing a response reads and discards
+     * in order to return its connection to the pool.  Responses with more left unread
+     * are disconnected instead.
+     */
+    public static final long DRAIN_LIMIT = 64 * 1024;
+
+    /**
+     * The connect and read timeouts, in milliseconds, used until others are set.
+     */
+    public static final int DEFAULT_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static final String USER_AGENT = "nist-data-mirror";
+
+    private volatile int connectTimeout = DEFAULT_TIMEOUT_MILLIS;
+    private volatile int readTimeout = DEFAULT_TIMEOUT_MILLIS;
+    private volatile long stallFloor = 0;
+    private volatile long stallWindowNanos = 0;
+
+    /**
+     * Create a client.
+     */
+    public MirrorHttpClient() {
+        super();
+    }
+
+    /**
+     * Size the Java runtime's cache of idle connections, for every client in the JVM,
+     * by setting the <code>http.maxConnections</code> system property.  Meant to be 
+     * called once, by the program that owns the JVM, before any connection is made.  
+     * Has no effect if the property was already set, as by a launcher, or once the 
+     * runtime has made its first persistent connection.
+     *
+     * @param   maxConnectionsPerHost   the largest number of connections to a single host
+     *                                  that the mirrors in the JVM may use at the same 
+     *                                  time, and so the number of idle connections per
+     *                                  host worth keeping for reuse
+     */
+    public static void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(Math.max(5, maxConnectionsPerHost)));
+        }
+    }
+
+    /**
+     * Set the timeouts of the connections made from now on.
+     *
+     * @param   connectMillis   the longest time to wait for a connection to be
+     *                          established, in milliseconds, or zero to wait forever
+     * @param   readMillis      the longest time to wait for any data on an established
+     *                          connection, in milliseconds, or zero to wait forever
+     */
+    public void setTimeouts(int connectMillis, int readMillis) {
+        connectTimeout = connectMillis;
+        readTimeout = readMillis;
+    }
+
+    /**
+     * Watch the bodies of the responses received from now on for stalls.
+     *
+     * @param   floor           the slowest acceptable rate, in bytes per second, or zero
+     *                          not to watch for stalls
+     * @param   windowSeconds   the time, in seconds, spent waiting for data over which 
+     *                          the rate must stay below the floor for a body to be
+     *                          deemed stalled
+     */
+    public void setStallDetection(long floor, int windowSeconds) {
+        stallWindowNanos = TimeUnit.SECONDS.toNanos(Math.max(1, windowSeconds));
+        stallFloor = Math.max(0, floor);
+    }
+
+    /**
+     * Issue a GET request.
+     *
+     * @param   url         the URL of the resource
+     * @param   headers     additional request headers, such as validators or a range,
+     *                      or null for none
+     *
+     * @return  the response, whose status and headers have been received
+     *
+     * @throws IOException      when the request could not be made.
+     */
+    public Response get(URL url, Map<String, String> headers) throws IOException {
+        return send("GET", url, headers);
+    }
+
+    /**
+     * Issue a GET request for a range of bytes of a resource.
+     *
+     * @param   url         the URL of the resource
+     * @param   first       the offset of the first byte wanted
+     * @param   last        the offset of the last byte wanted, or a negative number for
+     *                      all bytes from the first to the end of the resource
+     * @param   ifRange     an entity tag or last-modified date to send as an
+     *                      <code>If-Range</code> validator, or null for none
+     *
+     * @return  the response, whose status and headers have been received
+     *
+     * @throws IOException      when the request could not be made.
+     */
+    public Response getRange(URL url, long first, long last, String ifRange) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Range", "bytes=" + first + "-" + ((last < 0) ? "" : String.valueOf(last)));
+        if (ifRange != null) {
+            headers.put("If-Range", ifRange);
+        }
+        return get(url, headers);
+    }
+
+    /**
+     * Issue a HEAD request.
+     *
+     * @param   url         the URL of the resource
+     *
+     * @return  the response, whose status and headers have been received
+     *
+     * @throws IOException      when the request could not be made.
+     */
+    public Response head(URL url) throws IOException {
+        return send("HEAD", url, null);
+    }
+
+    /**
+     * The response to a request.  Closing it makes its connection available for reuse
+     * whenever that is cheap to do.
+     */
+    public static class Response implements Closeable {
+        private final HttpURLConnection connection;
+        private final int code;
+        private final long stallFloor;
+        private final long stallWindowNanos;
+        private InputStream body = null;
+        private boolean closed = false;
+        private volatile boolean bodyClosed = false;
+
+        Response(HttpURLConnection connection, long stallFloor, long stallWindowNanos) throws IOException {
+            this.connection = connection;
+            this.stallFloor = stallFloor;
+            this.stallWindowNanos = stallWindowNanos;
+            this.code = connection.getResponseCode();
+        }
+
+        /**
+         * Return the URL that was requested.
+         *
+         * @return  the URL
+         */
+        public URL url() {
+            return connection.getURL();
+        }
+
+        /**
+         * Return the response's HTTP status code.
+         *
+         * @return  the status code
+         */
+        public int code() {
+            return code;
+        }
+
+        /**
+         * Return the response's HTTP status message.
+         *
+         * @return  the status message, or null if there was none
+         *
+         * @throws IOException      when the message could not be read.
+         */
+        public String message() throws IOException {
+            return connection.getResponseMessage();
+        }
+
+        /**
+         * Return the value of a response header.
+         *
+         * @param   name    the name of the header
+         *
+         * @return  the header's value, or null if the response does not have the header
+         */
+        public String header(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        /**
+         * Return the length of the response body.
+         *
+         * @return  the length in bytes, or -1 if unknown
+         */
+        public long contentLength() {
+            return connection.getContentLengthLong();
+        }
+
+        /**
+         * Return the response body.  For error responses, this is the error body.
+         *
+         * @return  the body
+         *
+         * @throws IOException      when the body could not be opened.
+         */
+        public InputStream body() throws IOException {
+            if (body == null) {
+                InputStream raw = (code >= 400) ? connection.getErrorStream() : connection.getInputStream();
+                if (raw == null) {
+                    raw = new ByteArrayInputStream(new byte[0]);
+                }
+                long floor = stallFloor;
+                long window = stallWindowNanos;
+                body = new FilterInputStream(raw) {
+                    private long waited = 0;
+                    private long arrived = 0;
+
+                    @Override
+                    public int read() throws IOException {
+                        long start = System.nanoTime();
+                        int b = super.read();
+                        checkStall(start, (b < 0) ? 0 : 1);
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        long start = System.nanoTime();
+                        int count = super.read(b, off, len);
+                        checkStall(start, Math.max(0, count));
+                        return count;
+                    }
+
+                    private void checkStall(long start, int count) throws IOException {
+                        if (floor <= 0) {
+                            return;
+                        }
+                        waited += System.nanoTime() - start;
+                        arrived += count;
+                        if (waited >= window) {
+                            long rate = arrived * TimeUnit.SECONDS.toNanos(1) / waited;
+                            waited = 0;
+                            arrived = 0;
+                            if (rate < floor) {
+                                throw new StalledTransferException("Transfer from " + url() + " stalled at "
+                                    + rate + " bytes per second.");
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        bodyClosed = true;
+                        super.close();
+                    }
+                };
+            }
+            return body;
+        }
+
+        /**
+         * Give up on the response, closing its connection rather than reading what
+         * remains of its body.
+         */
+        public void abandon() {
+            if (!closed) {
+                closed = true;
+                connection.disconnect();
+            }
+        }
+
+        /**
+         * Finish with the response.  If little of its body remains unread, that is
+         * read and discarded so that the connection can be reused; otherwise the
+         * connection is closed.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (bodyClosed) {
+                // Whoever read the body has already released the connection.
+                return;
+            }
+            try {
+                InputStream inS = body();
+                long drained = 0;
+                byte[] buf = new byte[8 * 1024];
+                int count;
+                while (drained <= DRAIN_LIMIT && (count = inS.read(buf)) > 0) {
+                    drained += count;
+                }
+                if (drained > DRAIN_LIMIT) {
+                    connection.disconnect();
+                } else {
+                    inS.close();
+                }
+            } catch (IOException e) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    // Private implementation
+
+    private Response send(String method, URL url, Map<String, String> headers) throws IOException {
+        HttpURLConnection connection = "file".equals(url.getProtocol()) 
+            ? new FileUrlConnection(url) : (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setUseCaches(false);
+        connection.setInstanceFollowRedirects(true);
+        connection.setRequestProperty("User-Agent", USER_AGENT);
+        if (headers != null) {
+            for (Map.Entry<String, String> aHeader : headers.entrySet()) {
+                connection.setRequestProperty(aHeader.getKey(), aHeader.getValue());
+            }
+        }
+        return new Response(connection, stallFloor, stallWindowNanos);
+    }
+}
@@ -0,0 +1,328 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Merges the CVE items of NIST's JSON feed of recently modified vulnerabilities into
+ * the yearly JSON feeds, so that yearly feeds kept locally stay current between full
+ * downloads of them.
+ * <p>
+ * Each item of the modified feed replaces the item with the same CVE ID in the feed
+ * of its year, if its <code>lastModifiedDate</code> is later, or is added to that feed
+ * if the feed lacks it.  A CVE belongs to the year in its ID, and CVEs from before the
+ * first yearly feed belong to the first.  Every other item, and every other part of a
+ * yearly feed, is copied unchanged, except that the feed's count of CVEs and its
+ * timestamp are brought up to date.
+ * <p>
+ * Feeds are streamed, so that only the modified feed's items are held in memory.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class NvdFeedMerger {
+
+    private static final String ITEMS = "CVE_Items";
+    private static final String COUNT = "CVE_data_numberOfCVEs";
+    private static final String TIMESTAMP = "CVE_data_timestamp";
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private final int firstYear;
+    private final Map<Integer, Map<String, Item>> updatesByYear = new TreeMap<Integer, Map<String, Item>>();
+    private String timestamp = null;
+
+    /**
+     * Read the items of a modified feed.
+     *
+     * @param   modifiedFeed    the GZip-compressed modified feed
+     * @param   firstYear       the year of the first yearly feed
+     *
+     * @throws IOException      when the feed is malformed, or when an I/O error occurs.
+     */
+    public NvdFeedMerger(File modifiedFeed, int firstYear) throws IOException {
+        this.firstYear = firstYear;
+        try (JsonScanner json = open(modifiedFeed)) {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (ITEMS.equals(name)) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        String raw = json.rawValue();
+                        Item anItem = Item.parse(new JsonScanner(new StringReader(raw)));
+                        anItem.raw = raw;
+                        Map<String, Item> updates = updatesByYear.get(yearOf(anItem.id));
+                        if (updates == null) {
+                            updates = new TreeMap<String, Item>();
+                            updatesByYear.put(yearOf(anItem.id), updates);
+                        }
+                        Item known = updates.get(anItem.id);
+                        if (known == null || anItem.isNewerThan(known)) {
+                            updates.put(anItem.id, anItem);
+                        }
+                    }
+                    json.endArray();
+                } else if (TIMESTAMP.equals(name)) {
+                    timestamp = json.nextString();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+    }
+
+    /**
+     * Return the years whose feeds have items in the modified feed.
+     *
+     * @return  the years, in ascending order
+     */
+    public SortedSet<Integer> years() {
+        return new TreeSet<Integer>(updatesByYear.keySet());
+    }
+
+    /**
+     * Merge the modified feed's items for a year into that year's feed.
+     *
+     * @param   yearlyFeed  the GZip-compressed feed of the year
+     * @param   year        the year
+     * @param   mergedFeed  the file to which to write the merged feed, GZip-compressed
+     * @param   mergedJson  a file to which to write the merged feed uncompressed as well,
+     *                      or null
+     *
+     * @return  the number of items replaced or added, which is zero if the yearly feed
+     *          was already current, in which case nothing is written
+     *
+     * @throws IOException      when a feed is malformed, or when an I/O error occurs.
+     */
+    public int merge(File yearlyFeed, int year, File mergedFeed, File mergedJson) throws IOException {
+        Map<String, Item> updates = updatesByYear.get(year);
+        if (updates == null) {
+            return 0;
+        }
+        // The first pass learns which items the yearly feed has, so that the count of
+        // CVEs, which precedes the items, can be written correctly in the second.
+        List<String> ids = new ArrayList<String>();
+        Map<String, Item> replacements = new HashMap<String, Item>();
+        Map<String, Item> additions = new LinkedHashMap<String, Item>(updates);
+        try (JsonScanner json = open(yearlyFeed)) {
+            json.beginObject();
+            while (json.hasNext()) {
+                if (ITEMS.equals(json.nextName())) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        Item existing = Item.parse(json);
+                        ids.add(existing.id);
+                        Item update = additions.remove(existing.id);
+                        if (update != null && update.isNewerThan(existing)) {
+                            replacements.put(existing.id, update);
+                        }
+                    }
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+        int changed = replacements.size() + additions.size();
+        if (changed == 0) {
+            return 0;
+        }
+        try (JsonScanner json = open(yearlyFeed);
+                Writer gzOut = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(
+                    new FileOutputStream(mergedFeed), GZIP_BUFFER_SIZE), StandardCharsets.UTF_8));
+                Writer jsonOut = (mergedJson == null) ? null : new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(mergedJson), StandardCharsets.UTF_8))) {
+            Writer out = (jsonOut == null) ? gzOut : new TeeWriter(gzOut, jsonOut);
+            json.beginObject();
+            out.write("{\n");
+            boolean first = true;
+            while (json.hasNext()) {
+                String name = json.nextName();
+                out.write(first ? "  " : ",\n  ");
+                out.write(JsonScanner.quote(name));
+                out.write(" : ");
+                first = false;
+                if (ITEMS.equals(name)) {
+                    json.beginArray();
+                    out.write("[ ");
+                    int index = 0;
+                    while (json.hasNext()) {
+                        String raw = json.rawValue();
+                        Item replacement = replacements.get(ids.get(index));
+                        out.write((index == 0) ? "" : ", ");
+                        out.write((replacement == null) ? raw : replacement.raw);
+                        index += 1;
+                    }
+                    json.endArray();
+                    for (Item anAddition : additions.values()) {
+                        out.write((index == 0) ? "" : ", ");
+                        out.write(anAddition.raw);
+                        index += 1;
+                    }
+                    out.write(" ]");
+                } else if (COUNT.equals(name)) {
+                    String raw = json.rawValue();
+                    String count = String.valueOf(ids.size() + additions.size());
+                    out.write(raw.startsWith("\"") ? JsonScanner.quote(count) : count);
+                } else if (TIMESTAMP.equals(name) && timestamp != null) {
+                    String existing = json.nextString();
+                    out.write(JsonScanner.quote((timestamp.compareTo(existing) > 0) ? timestamp : existing));
+                } else {
+                    out.write(json.rawValue());
+                }
+            }
+            json.endObject();
+            out.write("\n}\n");
+            out.flush();
+        }
+        return changed;
+    }
+
+    // Private implementation
+
+    private int yearOf(String cveId) {
+        // CVE IDs look like CVE-2017-1234.
+        int year = firstYear;
+        String[] parts = cveId.split("-");
+        if (parts.length > 1) {
+            try {
+                year = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                // keep the first year
+            }
+        }
+        return Math.max(firstYear, year);
+    }
+
+    private static JsonScanner open(File gzFile) throws IOException {
+        return new JsonScanner(new BufferedReader(new InputStreamReader(new GZIPInputStream(
+            new FileInputStream(gzFile), GZIP_BUFFER_SIZE), StandardCharsets.UTF_8), GZIP_BUFFER_SIZE));
+    }
+
+    /*
+     * A CVE item's identity and the date it was last modified, with its JSON text when
+     * it is to be written out.
+     */
+    private static class Item {
+        String id = "";
+        String lastModified = "";
+        String raw = null;
+
+        /*
+         * Read an item, keeping only its CVE ID (cve.CVE_data_meta.ID) and its
+         * lastModifiedDate.
+         */
+        static Item parse(JsonScanner json) throws IOException {
+            Item anItem = new Item();
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if ("cve".equals(name)) {
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        if ("CVE_data_meta".equals(json.nextName())) {
+                            json.beginObject();
+                            while (json.hasNext()) {
+                                if ("ID".equals(json.nextName())) {
+                                    anItem.id = json.nextString();
+                                } else {
+                                    json.skipValue();
+                                }
+                            }
+                            json.endObject();
+                        } else {
+                            json.skipValue();
+                        }
+                    }
+                    json.endObject();
+                } else if ("lastModifiedDate".equals(name)) {
+                    anItem.lastModified = json.nextString();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+            return anItem;
+        }
+
+        /*
+         * The dates are ISO 8601 in a fixed format, so they compare as strings.
+         */
+        boolean isNewerThan(Item other) {
+            return lastModified.compareTo(other.lastModified) > 0;
+        }
+    }
+
+    /*
+     * Writes the same text to two writers.
+     */
+    private static class TeeWriter extends Writer {
+        private final Writer first;
+        private final Writer second;
+
+        TeeWriter(Writer first, Writer second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            first.write(cbuf, off, len);
+            second.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str) throws IOException {
+            first.write(str);
+            second.write(str);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            first.flush();
+            second.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the writers are closed by their owner
+            flush();
+        }
+    }
+}
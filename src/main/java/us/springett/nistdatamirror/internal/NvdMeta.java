@@ -0,0 +1,225 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The contents of one of the small <code>.meta</code> files that NIST publishes next
+ * to each NVD data feed.  A meta file consists of <code>name:value</code> lines that
+ * describe the feed's last modification date, its size before and after compression,
+ * and the SHA-256 digest of its uncompressed content.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class NvdMeta {
+
+    private String lastModifiedDate = null;
+    private long size = -1;
+    private long gzSize = -1;
+    private String sha256 = null;
+
+    /**
+     * Parse the contents of a meta file.
+     *
+     * @param   inS     the stream from which to read the meta file
+     *
+     * @return  the parsed meta data
+     *
+     * @throws IOException      when an I/O error occurs, or when the stream does not
+     *                          contain a well-formed meta file.
+     */
+    public static NvdMeta parse(InputStream inS) throws IOException {
+        NvdMeta meta = new NvdMeta();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inS, StandardCharsets.UTF_8));
+        String line;
+        try {
+            while ((line = reader.readLine()) != null) {
+                int sepIx = line.indexOf(':');
+                if (sepIx < 0) {
+                    continue;
+                }
+                String name = line.substring(0, sepIx).trim();
+                String value = line.substring(sepIx + 1).trim();
+                if ("lastModifiedDate".equals(name)) {
+                    meta.lastModifiedDate = value;
+                } else if ("size".equals(name)) {
+                    meta.size = Long.parseLong(value);
+                } else if ("gzSize".equals(name)) {
+                    meta.gzSize = Long.parseLong(value);
+                } else if ("sha256".equals(name)) {
+                    meta.sha256 = value.toUpperCase();
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed NVD meta file.", e);
+        }
+        if (meta.lastModifiedDate == null || meta.sha256 == null) {
+            throw new IOException("Incomplete NVD meta file.");
+        }
+        return meta;
+    }
+
+    /**
+     * Recreate meta data previously saved with <code>toProperties</code>.
+     *
+     * @param   props   the saved properties, or null
+     *
+     * @return  the meta data, or null if the properties do not describe any
+     */
+    public static NvdMeta fromProperties(Properties props) {
+        if (props == null || props.getProperty("sha256") == null) {
+            return null;
+        }
+        NvdMeta meta = new NvdMeta();
+        meta.lastModifiedDate = props.getProperty("lastModifiedDate");
+        meta.size = Long.parseLong(props.getProperty("size", "-1"));
+        meta.gzSize = Long.parseLong(props.getProperty("gzSize", "-1"));
+        meta.sha256 = props.getProperty("sha256");
+        return meta;
+    }
+
+    /**
+     * Represent the meta data as properties suitable for saving.
+     *
+     * @return  the properties
+     */
+    public Properties toProperties() {
+        Properties props = new Properties();
+        props.setProperty("lastModifiedDate", lastModifiedDate);
+        props.setProperty("size", String.valueOf(size));
+        props.setProperty("gzSize", String.valueOf(gzSize));
+        props.setProperty("sha256", sha256);
+        return props;
+    }
+
+    /**
+     * Return the date and time at which NIST last modified the feed, as published.
+     *
+     * @return  the last modification date
+     */
+    public String lastModifiedDate() {
+        return lastModifiedDate;
+    }
+
+    /**
+     * Return the size of the uncompressed feed.
+     *
+     * @return  the size in bytes, or -1 if not published
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Return the size of the GZip-compressed feed.
+     *
+     * @return  the size in bytes, or -1 if not published
+     */
+    public long gzSize() {
+        return gzSize;
+    }
+
+    /**
+     * Return the SHA-256 digest of the uncompressed feed.
+     *
+     * @return  the digest as upper-case hexadecimal
+     */
+    public String sha256() {
+        return sha256;
+    }
+
+    /**
+     * Determine whether two sets of meta data describe the same version of a feed.
+     *
+     * @param   other   the meta data to compare with, or null
+     *
+     * @return  true if and only if the modification dates, sizes and digests match
+     */
+    public boolean describesSameFeedAs(NvdMeta other) {
+        return other != null
+            && lastModifiedDate.equals(other.lastModifiedDate)
+            && size == other.size
+            && gzSize == other.gzSize
+            && sha256.equalsIgnoreCase(other.sha256);
+    }
+
+    /**
+     * Determine whether a GZip-compressed file holds the feed that the meta data
+     * describes, by comparing the SHA-256 digest of its uncompressed content with
+     * the published one.
+     *
+     * @param   gzFile  the compressed feed
+     *
+     * @return  true if and only if the digests match
+     *
+     * @throws IOException      when an I/O error occurs while reading the file.
+     */
+    public boolean matches(File gzFile) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream inS = new GZIPInputStream(new FileInputStream(gzFile), buf.length)) {
+            int count;
+            while ((count = inS.read(buf)) > 0) {
+                digest.update(buf, 0, count);
+            }
+        }
+        return sha256.equalsIgnoreCase(toHex(digest.digest()));
+    }
+
+    /**
+     * Render bytes as upper-case hexadecimal, the form in which NIST publishes digests.
+     *
+     * @param   bytes   the bytes to be rendered
+     *
+     * @return  the hexadecimal string
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString().toUpperCase();
+    }
+
+    /**
+     *  Provides a string representation suitable for use by System.out.print, etc.
+     */
+    @Override
+    public String toString() {
+        return (
+            "lastModifiedDate: " + lastModifiedDate +
+            ", size: " + size +
+            ", gzSize: " + gzSize +
+            ", sha256: " + sha256);
+    }
+}
@@ -0,0 +1,126 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Places copies of files and directory trees that the mirror has already downloaded
+ * or extracted into further mirror directories, so that mirroring to several
+ * directories costs one download and one extraction.
+ * <p>
+ * Each file is hard-linked where the destination is on the same file system as the
+ * source, and copied otherwise.  Either way, the new version is first placed under a
+ * staging name and then renamed over any existing file, just as downloads are, so
+ * readers of the destination never see a partial file.  Hard links are safe because
+ * the mirror never rewrites a published file in place: a later refresh of the source
+ * replaces it with a new file, leaving the linked version unchanged.
+ * <p>
+ * Files that are already identical in the destination, being the same file or having
+ * the same size and modification time, are left alone.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class Replicator {
+
+    private volatile boolean linksFailed = false;
+
+    /**
+     * Make a destination hold the same content as a source.
+     *
+     * @param   src     the file or directory to be replicated
+     * @param   dest    the file or directory to be created or brought up to date
+     *
+     * @return  the number of files placed in the destination, not counting those that
+     *          were already identical
+     *
+     * @throws IOException      when an I/O error occurs.
+     */
+    public long replicate(File src, File dest) throws IOException {
+        Path srcRoot = src.toPath();
+        Path destRoot = dest.toPath();
+        long[] placed = new long[] {0};
+        Files.walkFileTree(srcRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(destRoot.resolve(srcRoot.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path aFile, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && place(aFile.toFile(),
+                        destRoot.resolve(srcRoot.relativize(aFile)).toFile())) {
+                    placed[0] += 1;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return placed[0];
+    }
+
+    // Private implementation
+
+    private boolean place(File src, File dest) throws IOException {
+        if (dest.isFile() && (Files.isSameFile(src.toPath(), dest.toPath())
+                || (dest.length() == src.length() && dest.lastModified() == src.lastModified()))) {
+            return false;
+        }
+        File parent = dest.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory " + parent + ".");
+        }
+        File staged = AtomicFiles.stage(dest);
+        try {
+            if (link(src, staged)) {
+                AtomicFiles.rename(staged, dest);
+            } else {
+                Files.copy(src.toPath(), staged.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                AtomicFiles.publish(staged, dest);
+            }
+        } finally {
+            staged.delete();
+        }
+        return true;
+    }
+
+    /*
+     * Replace the (empty) staging file with a hard link to the source.  Once linking
+     * fails, for instance across file systems, later files are copied without trying.
+     */
+    private boolean link(File src, File staged) {
+        if (linksFailed) {
+            return false;
+        }
+        try {
+            Files.delete(staged.toPath());
+            Files.createLink(staged.toPath(), src.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            linksFailed = true;
+            return false;
+        }
+    }
+}
@@ -0,0 +1,444 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import us.springett.nistdatamirror.Annunciator;
+
+/**
+ * Downloads one large file over several HTTP connections at once.  The file is split
+ * into contiguous byte ranges, each range is fetched with an HTTP <code>Range</code>
+ * request, and each response is written at its own offset into an output file that
+ * has been extended to its final length beforehand.
+ * <p>
+ * If the server answers the first ranged request with the whole file rather than
+ * with the requested range, the download proceeds over that single connection.
+ * <p>
+ * The download reports how many bytes of each range it has written to a 
+ * <code>Checkpoint</code>, so that an interrupted download can later be resumed, 
+ * fetching only what is missing from each range.
+ * <p>
+ * A range whose connection times out or stalls is requested again, from where it
+ * stopped, over a new connection, while the other ranges carry on.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class SegmentedDownload {
+
+    /**
+     * Receives the progress of a segmented download so that it can be resumed.
+     */
+    public interface Checkpoint {
+        /**
+         * Record the download's progress.
+         *
+         * @param   done    the number of bytes written so far for each segment, in
+         *                  segment order.
+         * @throws IOException      when the progress could not be recorded.
+         */
+        public void save(long[] done) throws IOException;
+    }
+
+    private static final long CHECKPOINT_INTERVAL_MS = 1000;
+    private static final int MAX_RECONNECTS = 3;
+
+    private final MirrorHttpClient http;
+    private final URL url;
+    private final long length;
+    private final File outFile;
+    private final int segments;
+    private final Annunciator annunciator;
+    private final AtomicLong soFar = new AtomicLong(0);
+    private final long segmentSize;
+    private final long[] done;
+    private String validator = null;
+    private Checkpoint checkpoint = null;
+    private Throttle throttle = null;
+    private long lastCheckpoint = 0;
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private volatile FileChannel outChannel = null;
+    private volatile boolean discard = false;
+
+    /**
+     * Plan a segmented download.
+     *
+     * @param   http            the client through which to make requests
+     * @param   url             the URL of the file to be downloaded
+     * @param   length          the length of the file, in bytes, as reported by the server
+     * @param   outFile         the file into which to write the downloaded content
+     * @param   segments        the number of byte ranges to fetch at the same time
+     * @param   an              the Annunciator to which to report progress, or null
+     */
+    public SegmentedDownload(MirrorHttpClient http, URL url, long length, File outFile, int segments, 
+            Annunciator an) {
+        this.http = http;
+        this.url = url;
+        this.length = length;
+        this.outFile = outFile;
+        this.segments = (segments < 1) ? 1 : segments;
+        this.annunciator = an;
+        this.segmentSize = (length + this.segments - 1) / this.segments;
+        this.done = new long[this.segments];
+    }
+
+    /**
+     * Resume a download from previously checkpointed progress.  The output file must 
+     * still contain the bytes that the progress reports as written.
+     *
+     * @param   progress    the number of bytes already written for each segment, as
+     *                      last passed to a Checkpoint.  Its length must equal the
+     *                      number of segments.
+     * @param   ifRange     the entity tag or last-modified date of the file that was
+     *                      being downloaded, sent as an <code>If-Range</code> validator
+     *                      so that the server sends the whole file, rather than
+     *                      mismatched ranges, if the file has since changed.
+     */
+    public void resume(long[] progress, String ifRange) {
+        if (progress.length != segments) {
+            throw new IllegalArgumentException("Progress does not match the number of segments.");
+        }
+        long total = 0;
+        for (int ix = 0; ix < segments; ix++) {
+            done[ix] = Math.max(0, Math.min(progress[ix], segmentLength(ix)));
+            total += done[ix];
+        }
+        soFar.set(total);
+        validator = ifRange;
+    }
+
+    /**
+     * Set the entity tag or last-modified date of the file being downloaded.  Ranged
+     * requests carry it as an <code>If-Range</code> validator, so that a file that 
+     * changes on the server part way through the download is detected rather than 
+     * assembled from mismatched ranges.
+     *
+     * @param   ifRange     the validator, or null to send none
+     */
+    public void setValidator(String ifRange) {
+        validator = ifRange;
+    }
+
+    /**
+     * Set the object to which the download reports its progress, about once a second 
+     * while downloading and once more when it stops.  The bytes a checkpoint reports
+     * have been forced to the storage device before it is saved, so that progress
+     * restored after a crash never claims bytes that were lost with it.
+     *
+     * @param   aCheckpoint     the Checkpoint to be informed, or null
+     */
+    public void setCheckpoint(Checkpoint aCheckpoint) {
+        checkpoint = aCheckpoint;
+    }
+
+    /**
+     * Set the Throttle that limits the rate at which the download reads from its 
+     * connections, taken together.
+     *
+     * @param   aThrottle       the Throttle, or null for no limit
+     */
+    public void setThrottle(Throttle aThrottle) {
+        throttle = aThrottle;
+    }
+
+    /**
+     * Perform the download.  When a resumed download finds that the file changed on
+     * the server, the method removes the partially-written output file before failing,
+     * since its contents can no longer be completed.
+     *
+     * @throws IOException      when an I/O error occurs on any of the connections or
+     *                          while writing the output file.
+     */
+    public void download() throws IOException {
+        download(null);
+    }
+
+    /**
+     * Perform the download, taking the first segment from a response that the caller
+     * has already received, such as the one that told it the file's length.  The 
+     * response may be either the whole file or a ranged response beginning with the 
+     * first byte; only the first segment is read from it.
+     * <p>
+     * When a resumed download finds that the file changed on the server, the method 
+     * removes the partially-written output file before failing, since its contents can
+     * no longer be completed.
+     *
+     * @param   opened      the response, or null to make a new request
+     *
+     * @throws IOException      when an I/O error occurs on any of the connections or
+     *                          while writing the output file.
+     */
+    public void download(MirrorHttpClient.Response opened) throws IOException {
+        boolean completed = false;
+        try (RandomAccessFile raf = new RandomAccessFile(outFile, "rw")) {
+            raf.setLength(length);
+            outChannel = raf.getChannel();
+            try {
+                fetchAll(opened, outChannel);
+                completed = true;
+            } finally {
+                if (!discard && !completed) {
+                    saveCheckpoint(true);
+                }
+                outChannel = null;
+            }
+        } finally {
+            if (annunciator != null) {
+                annunciator.endBusy();
+            }
+            if (discard) {
+                outFile.delete();
+            }
+        }
+    }
+
+    // Private implementation
+
+    /*
+     * Fetch what is missing of the file into the channel.
+     */
+    private void fetchAll(MirrorHttpClient.Response opened, FileChannel channel) throws IOException {
+        if (opened != null) {
+            fetchSegments(opened, channel);
+        } else if (soFar.get() == 0) {
+            MirrorHttpClient.Response first = http.getRange(url, 0, segmentLength(0) - 1, validator);
+            if (first.code() == HttpURLConnection.HTTP_OK) {
+                // Either the server ignored the Range header, or the file changed since
+                // the validator was taken and the server is sending the new version.
+                if (!isSameFile(first)) {
+                    first.abandon();
+                    discard = true;
+                    throw new IOException("File " + url + " changed on the server since its download began.");
+                }
+                announce("Server does not support ranged requests, using a single connection.");
+                java.util.Arrays.fill(done, 0);
+                try {
+                    copyToOffset(first, -1, 0, length, channel);
+                    first.close();
+                } finally {
+                    first.abandon();
+                }
+            } else {
+                checkPartial(first, 0);
+                fetchSegments(first, channel);
+            }
+        } else {
+            fetchSegments(null, channel);
+        }
+    }
+
+    private long segmentStart(int ix) {
+        return ix * segmentSize;
+    }
+
+    private long segmentLength(int ix) {
+        return Math.max(0, Math.min(segmentSize, length - segmentStart(ix)));
+    }
+
+    private void fetchSegments(MirrorHttpClient.Response first, FileChannel channel) 
+        throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(segments);
+        try {
+            List<Future<Void>> parts = new ArrayList<Future<Void>>(segments);
+            for (int ix = 0; ix < segments; ix++) {
+                final int seg = ix;
+                if (segmentLength(ix) - done[ix] <= 0) {
+                    continue;
+                }
+                final MirrorHttpClient.Response given = (ix == 0) ? first : null;
+                parts.add(pool.submit(() -> {
+                    fetchSegment(seg, given, channel);
+                    return null;
+                }));
+            }
+            for (Future<Void> aPart : parts) {
+                aPart.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during segmented download.", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /*
+     * Fetch what remains of a segment, starting with a response already received, if
+     * one is given.  When a connection times out or stalls, the rest of the segment is
+     * requested again over a new one, up to MAX_RECONNECTS times.
+     */
+    private void fetchSegment(int seg, MirrorHttpClient.Response given, FileChannel channel) throws IOException {
+        for (int reconnects = 0; ; reconnects++) {
+            long fetched;
+            synchronized (done) {
+                fetched = done[seg];
+            }
+            long from = segmentStart(seg) + fetched;
+            long count = segmentLength(seg) - fetched;
+            if (count <= 0) {
+                return;
+            }
+            boolean whole = given != null && given.code() == HttpURLConnection.HTTP_OK;
+            MirrorHttpClient.Response response = 
+                (given != null) ? given : http.getRange(url, from, from + count - 1, validator);
+            given = null;
+            try {
+                if (!whole) {
+                    checkPartial(response, from);
+                }
+                copyToOffset(response, seg, from, count, channel);
+                if (!whole) {
+                    response.close();
+                }
+                return;
+            } catch (SocketTimeoutException e) {
+                if (reconnects >= MAX_RECONNECTS) {
+                    throw e;
+                }
+                announce("Reconnecting segment " + (seg + 1) + " of " + url + " after: " + e.getMessage());
+            } finally {
+                // Abandons the rest of a whole-file response, and any failed response.
+                response.abandon();
+            }
+        }
+    }
+
+    /*
+     * Whether a whole-file response carries the file being downloaded: one of the 
+     * length planned, and, when a validator was taken, with that same validator.
+     */
+    private boolean isSameFile(MirrorHttpClient.Response response) {
+        if (response.contentLength() != length) {
+            return false;
+        }
+        return validator == null || validator.equals(response.header("ETag")) 
+            || validator.equals(response.header("Last-Modified"));
+    }
+
+    private void checkPartial(MirrorHttpClient.Response response, long start) throws IOException {
+        int code = response.code();
+        String contentRange = response.header("Content-Range");
+        if (code == HttpURLConnection.HTTP_OK && validator != null) {
+            discard = true;
+            throw new IOException("File " + url + " changed on the server since its download began.");
+        }
+        if (code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            throw new HttpStatusException(code, "Server answered " + code + " " + response.message()
+                + " to ranged request for " + url + ".");
+        }
+        if (code != HttpURLConnection.HTTP_PARTIAL || contentRange == null
+                || !contentRange.trim().startsWith("bytes " + start + "-")) {
+            throw new IOException("Unexpected response to ranged request for " + url
+                + " (" + code + ", " + contentRange + ").");
+        }
+    }
+
+    private void copyToOffset(MirrorHttpClient.Response response, int seg, long offset, long count,
+            FileChannel channel) throws IOException {
+        InputStream body = (throttle != null) ? throttle.wrap(response.body()) : response.body();
+        ReadableByteChannel inC = Channels.newChannel(body);
+        long copied;
+        try {
+            copied = StreamUtil.transferUntilEof(inC, channel, offset, count, null, (long got) -> {
+                if (seg >= 0) {
+                    synchronized (done) {
+                        done[seg] += got;
+                    }
+                    try {
+                        saveCheckpoint(false);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                long total = soFar.addAndGet(got);
+                if (annunciator != null) {
+                    annunciator.busyPrint((int) (total * 100 / length));
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (copied < count) {
+            throw new IOException("Premature end of data while downloading " + url + ".");
+        }
+    }
+
+    /*
+     * Report the progress to the checkpoint, once the bytes it reports are on the 
+     * storage device.  Checkpoints are saved one at a time, in order; a periodic one 
+     * that falls due while another is being saved is skipped rather than waited for,
+     * so that the segments do not queue behind the device.
+     */
+    private void saveCheckpoint(boolean force) throws IOException {
+        if (checkpoint == null) {
+            return;
+        }
+        if (force) {
+            checkpointLock.lock();
+        } else if (!checkpointLock.tryLock()) {
+            return;
+        }
+        try {
+            long[] snapshot;
+            synchronized (done) {
+                long now = System.currentTimeMillis();
+                if (!force && now - lastCheckpoint < CHECKPOINT_INTERVAL_MS) {
+                    return;
+                }
+                lastCheckpoint = now;
+                snapshot = done.clone();
+            }
+            FileChannel out = outChannel;
+            if (out != null) {
+                out.force(false);
+            }
+            checkpoint.save(snapshot);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    private void announce(String aMsg) {
+        if (annunciator != null) {
+            annunciator.announce(aMsg);
+        }
+    }
+}
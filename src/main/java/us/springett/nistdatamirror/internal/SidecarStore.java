@@ -0,0 +1,134 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Keeps small sets of properties about the files in a mirror directory, such as the
+ * state of an interrupted download, in a hidden subdirectory of the mirror directory.
+ * Each set is stored as a Java properties file named after the key used to store it.
+ * <p>
+ * Sets are written to the device and then replaced atomically, so a reader never sees
+ * a partially-written set, even after a crash.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class SidecarStore {
+
+    /**
+     * The name of the subdirectory of a mirror directory that holds its sidecar files.
+     */
+    public static final String SIDECAR_DIR_NAME = ".nistdatamirror";
+
+    private final File dir;
+
+    /**
+     * Create a store for the sidecar files of a mirror directory.  The store's
+     * subdirectory is created when the first set is stored.
+     *
+     * @param   mirrorDir   the mirror directory whose files the store describes
+     */
+    public SidecarStore(File mirrorDir) {
+        dir = new File(mirrorDir, SIDECAR_DIR_NAME);
+    }
+
+    /**
+     * Return the directory in which the store keeps its files.
+     *
+     * @return  the store's directory
+     */
+    public File directory() {
+        return dir;
+    }
+
+    /**
+     * Load a set of properties.
+     *
+     * @param   key     the name under which the set was stored
+     *
+     * @return  the stored properties, or null if none are stored under the key
+     *
+     * @throws IOException      when an I/O error occurs.
+     */
+    public Properties load(String key) throws IOException {
+        File aFile = fileFor(key);
+        if (!aFile.isFile()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream inS = new FileInputStream(aFile)) {
+            props.load(inS);
+        }
+        return props;
+    }
+
+    /**
+     * Store a set of properties, replacing any set already stored under the same key.
+     *
+     * @param   key     the name under which to store the set
+     * @param   props   the properties to be stored
+     *
+     * @throws IOException      when an I/O error occurs.
+     */
+    public void store(String key, Properties props) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Could not create sidecar directory " + dir + ".");
+        }
+        File target = fileFor(key);
+        File temp = File.createTempFile(key, ".tmp", dir);
+        try {
+            try (FileOutputStream outS = new FileOutputStream(temp)) {
+                props.store(outS, null);
+                // The set must be on the device before the rename that publishes it, or
+                // a crash could leave an empty or partial file under the key.
+                outS.getFD().sync();
+            }
+            Files.move(temp.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Remove a set of properties, if one is stored under the key.
+     *
+     * @param   key     the name under which the set was stored
+     */
+    public void remove(String key) {
+        fileFor(key).delete();
+    }
+
+    /**
+     * Return the file in which a set of properties is stored.
+     *
+     * @param   key     the name under which the set is stored
+     *
+     * @return  the file, which exists only if a set is stored under the key
+     */
+    public File fileFor(String key) {
+        return new File(dir, key + ".properties");
+    }
+}
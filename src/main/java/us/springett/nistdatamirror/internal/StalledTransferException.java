@@ -0,0 +1,40 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Thrown when a response body arrives so slowly that its connection is presumed to be
+ * stuck, so that the transfer is abandoned and resumed over a new connection.  It is a
+ * kind of timeout, and is handled as a read timeout is.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class StalledTransferException extends SocketTimeoutException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param   msg     a description of the stall
+     */
+    public StalledTransferException(String msg) {
+        super(msg);
+    }
+}
@@ -16,9 +16,16 @@
  */
 package us.springett.nistdatamirror.internal;
 
+import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.LongConsumer;
 
 import us.springett.nistdatamirror.Annunciator;
 /**
@@ -29,6 +36,168 @@ import us.springett.nistdatamirror.Annunciator;
  */
 public class StreamUtil {
 
+    /**
+     * The size, in bytes, of the direct buffer that each thread uses to move data from
+     * channels that are not files into file channels.
+     */
+    public static final int DIRECT_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The most bytes moved by a single file-to-file transfer between progress reports.
+     */
+    private static final long TRANSFER_CHUNK_SIZE = 16L * 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> directBuffer = 
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE));
+
+    /**
+     * Copy the contents of a channel into a file channel at a given position, with 
+     * optional reporting via a provided Annunciator object.
+     * <p>
+     * When the source is itself a file channel, the copy is delegated to 
+     * <code>FileChannel.transferFrom</code>, letting the operating system move the
+     * bytes between the files without bringing them onto the Java heap.  Otherwise the
+     * bytes pass through a reusable direct buffer straight into the file, avoiding the
+     * intermediate heap buffers of buffered streams.
+     *
+     * @param   inC             the open channel to be copied.  A file channel is read from
+     *                          its current position, which the method advances.
+     * @param   outC            the open file channel into which the bytes should be written
+     * @param   position        the position in the file channel at which to write the first byte
+     * @param   count           the number of bytes to be copied, or a negative number to copy
+     *                          until the source reaches its end.  When not negative, the 
+     *                          method reports its progress percentage to the Annunciator.
+     * @param   an              the Annunciator to which the method reports its activity.  If the value
+     *                          passed via this parameter is null, then the method reports no progress 
+     *                          or activity.
+     * @param   onChunk         receives the number of bytes of each chunk as it is written, or null
+     * @return                  the number of bytes copied, which is less than a non-negative count
+     *                          only if the source ended early
+     * @throws IOException      when an I/O error occurs.
+     */
+    public static long transferUntilEof(ReadableByteChannel inC, FileChannel outC, long position,
+            long count, Annunciator an, LongConsumer onChunk) throws IOException {
+        return transferUntilEof(inC, outC, position, count, an, onChunk, null);
+    }
+
+    /**
+     * Copy the contents of a channel into a file channel at a given position, digesting
+     * the bytes as they pass, with optional reporting via a provided Annunciator object.
+     * <p>
+     * Digesting requires the bytes to pass through the Java process, so a file channel
+     * being digested is read through the direct buffer rather than transferred by the
+     * operating system.  Either way, each byte is read only once.
+     *
+     * @param   inC             the open channel to be copied.  A file channel is read from
+     *                          its current position, which the method advances.
+     * @param   outC            the open file channel into which the bytes should be written
+     * @param   position        the position in the file channel at which to write the first byte
+     * @param   count           the number of bytes to be copied, or a negative number to copy
+     *                          until the source reaches its end.  When not negative, the 
+     *                          method reports its progress percentage to the Annunciator.
+     * @param   an              the Annunciator to which the method reports its activity.  If the value
+     *                          passed via this parameter is null, then the method reports no progress 
+     *                          or activity.
+     * @param   onChunk         receives the number of bytes of each chunk as it is written, or null
+     * @param   digests         the digests to update with the bytes copied, or null
+     * @return                  the number of bytes copied, which is less than a non-negative count
+     *                          only if the source ended early
+     * @throws IOException      when an I/O error occurs.
+     */
+    public static long transferUntilEof(ReadableByteChannel inC, FileChannel outC, long position,
+            long count, Annunciator an, LongConsumer onChunk, Digests digests) throws IOException {
+        long soFar = 0;
+        try {
+            while (count < 0 || soFar < count) {
+                if (an != null) {
+                    if (count <= 0) {
+                        an.busyPrint();
+                    } else {
+                        an.busyPrint((int) (soFar * 100 / count));
+                    }
+                }
+                long moved;
+                if (inC instanceof FileChannel && digests == null) {
+                    long want = (count < 0) ? TRANSFER_CHUNK_SIZE : Math.min(TRANSFER_CHUNK_SIZE, count - soFar);
+                    moved = outC.transferFrom(inC, position + soFar, want);
+                    if (moved < 1) {
+                        break;
+                    }
+                } else {
+                    ByteBuffer bb = directBuffer.get();
+                    // Calls go through Buffer so that the class also runs on Java 8.
+                    ((Buffer) bb).clear();
+                    if (count >= 0 && count - soFar < bb.capacity()) {
+                        ((Buffer) bb).limit((int) (count - soFar));
+                    }
+                    int got = inC.read(bb);
+                    if (got < 0) {
+                        break;
+                    }
+                    ((Buffer) bb).flip();
+                    if (digests != null) {
+                        digests.update(bb);
+                    }
+                    moved = 0;
+                    while (bb.hasRemaining()) {
+                        moved += outC.write(bb, position + soFar + moved);
+                    }
+                }
+                soFar += moved;
+                if (onChunk != null && moved > 0) {
+                    onChunk.accept(moved);
+                }
+            }
+        } finally {
+            if (an != null)
+                an.endBusy();
+        }
+        return soFar;
+    }
+
+    /**
+     * Copy the contents of a stream into a file channel at a given position, with
+     * optional reporting via a provided Annunciator object.
+     *
+     * @param   inS             the open stream to be copied
+     * @param   outC            the open file channel into which the bytes should be written
+     * @param   position        the position in the file channel at which to write the first byte
+     * @param   count           the number of bytes to be copied, or a negative number to copy
+     *                          until the stream reaches its end.  When not negative, the 
+     *                          method reports its progress percentage to the Annunciator.
+     * @param   an              the Annunciator to which the method reports its activity.  If the value
+     *                          passed via this parameter is null, then the method reports no progress 
+     *                          or activity.
+     * @return                  the number of bytes copied
+     * @throws IOException      when an I/O error occurs.
+     */
+    public static long transferUntilEof(InputStream inS, FileChannel outC, long position, long count, 
+            Annunciator an) throws IOException {
+        return transferUntilEof(Channels.newChannel(inS), outC, position, count, an, null, null);
+    }
+
+    /**
+     * Copy the contents of a stream into a file channel at a given position, digesting
+     * the bytes as they pass, with optional reporting via a provided Annunciator object.
+     *
+     * @param   inS             the open stream to be copied
+     * @param   outC            the open file channel into which the bytes should be written
+     * @param   position        the position in the file channel at which to write the first byte
+     * @param   count           the number of bytes to be copied, or a negative number to copy
+     *                          until the stream reaches its end.  When not negative, the 
+     *                          method reports its progress percentage to the Annunciator.
+     * @param   an              the Annunciator to which the method reports its activity.  If the value
+     *                          passed via this parameter is null, then the method reports no progress 
+     *                          or activity.
+     * @param   digests         the digests to update with the bytes copied, or null
+     * @return                  the number of bytes copied
+     * @throws IOException      when an I/O error occurs.
+     */
+    public static long transferUntilEof(InputStream inS, FileChannel outC, long position, long count, 
+            Annunciator an, Digests digests) throws IOException {
+        return transferUntilEof(Channels.newChannel(inS), outC, position, count, an, null, digests);
+    }
+
     /**
      * Copy the contents of one stream to another, with optional reporting via a provided
      * Annunciator object.
@@ -46,6 +215,27 @@ public class StreamUtil {
      */
     public static void streamUntilEof(
             InputStream inS, OutputStream outS, long limit, Annunciator an) throws IOException {
+        streamUntilEof(inS, outS, limit, an, null);
+    }
+
+    /**
+     * Copy the contents of one stream to another, digesting the bytes as they pass, with
+     * optional reporting via a provided Annunciator object.
+     *
+     * @param   inS             the open stream to be copied
+     * @param   outS            the open output stream to which the contents of the input stream should be
+     *                          copied
+     * @param   limit           the number of bytes anticipated to be copied from the input stream to the
+     *                          output stream.  If less than zero, then the method reports no progress
+     *                          percentage to the Annunciator, only activity.
+     * @param   an              the Annunciator to which the method reports its activity.  If the value
+     *                          passed via this parameter is null, then the method reports no prograss 
+     *                          or activity.
+     * @param   digests         the digests to update with the bytes copied, or null
+     * @throws IOException      when an I/O error occurs.
+     */
+    public static void streamUntilEof(
+            InputStream inS, OutputStream outS, long limit, Annunciator an, Digests digests) throws IOException {
         int bufSz = MemoryProbe.maxChunkSizeScaledDn();
         byte buf[] = new byte[bufSz];
         int count;
@@ -64,6 +254,9 @@ public class StreamUtil {
                 count = inS.read(buf, 0, bufSz);
                 if (count < 1) 
                     break;
+                if (digests != null) {
+                    digests.update(buf, 0, count);
+                }
                 outS.write(buf, 0, count);
                 soFar += count;
             } while (true);
@@ -103,5 +296,3 @@ public class StreamUtil {
     }
 
 }
-
-
@@ -0,0 +1,203 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * A token bucket that limits the rate at which the mirror reads data from the network.
+ * Every download reading through the same Throttle shares its rate, however many are
+ * in progress at once.
+ * <p>
+ * Throttles nest: a Throttle with a parent charges each read to the parent as well,
+ * so that, for instance, NVD and NSRL downloads can each have their own limit while
+ * both remain within an overall limit.
+ * <p>
+ * The bucket holds up to one second's worth of bytes, allowing short bursts.  A read
+ * that finds too few tokens takes them anyway and then waits until the bucket has
+ * refilled enough to repay them, so concurrent readers are served in proportion to
+ * what they read.
+ * <p>
+ * A Throttle can also report every read charged to it to a meter, which lets the
+ * mirror measure its throughput at the same point where it limits it.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class Throttle {
+
+    private final long bytesPerSecond;
+    private final Throttle parent;
+    private double tokens;
+    private long lastRefill;
+    private volatile LongConsumer meter = null;
+
+    /**
+     * Create a Throttle.
+     *
+     * @param   bytesPerSecond  the greatest sustained rate, in bytes per second, or zero
+     *                          or less for no limit of its own
+     * @param   parent          a Throttle to which every read is also charged, or null
+     */
+    public Throttle(long bytesPerSecond, Throttle parent) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.parent = parent;
+        this.tokens = Math.max(0, bytesPerSecond);
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Parse a rate given on the command line, such as <code>50M</code>.  The rate is in
+     * bytes per second, optionally followed by <code>K</code>, <code>M</code> or
+     * <code>G</code> to multiply it by 1024, 1024<sup>2</sup> or 1024<sup>3</sup>.
+     *
+     * @param   aRate   the rate
+     *
+     * @return  the rate in bytes per second
+     *
+     * @throws NumberFormatException    when the rate is not a number, with or without one
+     *                                  of the recognized suffixes.
+     */
+    public static long parseRate(String aRate) {
+        String digits = aRate.trim().toLowerCase();
+        long multiplier = 1;
+        if (digits.endsWith("k")) {
+            multiplier = 1024L;
+        } else if (digits.endsWith("m")) {
+            multiplier = 1024L * 1024;
+        } else if (digits.endsWith("g")) {
+            multiplier = 1024L * 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        return Long.parseLong(digits) * multiplier;
+    }
+
+    /**
+     * Set the meter to which the Throttle reports the number of bytes of every read 
+     * charged to it.
+     *
+     * @param   aMeter  the meter, or null for none
+     */
+    public void setMeter(LongConsumer aMeter) {
+        meter = aMeter;
+    }
+
+    /**
+     * Indicate whether the Throttle, or any Throttle to which it charges reads, limits
+     * the rate.
+     *
+     * @return  true if and only if reads may be delayed
+     */
+    public boolean isLimited() {
+        return bytesPerSecond > 0 || (parent != null && parent.isLimited());
+    }
+
+    /**
+     * Indicate whether the Throttle, or any Throttle to which it charges reads, has a
+     * meter.
+     *
+     * @return  true if and only if reads are metered
+     */
+    public boolean isMetered() {
+        return meter != null || (parent != null && parent.isMetered());
+    }
+
+    /**
+     * Take tokens for bytes that have been read, waiting as long as needed to keep the
+     * rate within the limit.
+     *
+     * @param   count   the number of bytes read
+     *
+     * @throws InterruptedIOException   when the thread is interrupted while waiting.
+     */
+    public void acquire(long count) throws InterruptedIOException {
+        if (bytesPerSecond > 0) {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(bytesPerSecond,
+                    tokens + (now - lastRefill) * (double) bytesPerSecond / TimeUnit.SECONDS.toNanos(1));
+                lastRefill = now;
+                tokens -= count;
+                waitNanos = (tokens >= 0) ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+            }
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttling a download.");
+                }
+            }
+        }
+        LongConsumer aMeter = meter;
+        if (aMeter != null) {
+            aMeter.accept(count);
+        }
+        if (parent != null) {
+            parent.acquire(count);
+        }
+    }
+
+    /**
+     * Wrap a stream so that reading from it is subject to the Throttle.
+     *
+     * @param   inS     the stream to be throttled
+     *
+     * @return  the throttled stream, or the stream itself if the Throttle sets no limit
+     *          and has no meter
+     */
+    public InputStream wrap(InputStream inS) {
+        if (!isLimited() && !isMetered()) {
+            return inS;
+        }
+        return new FilterInputStream(inS) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    acquire(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+                if (count > 0) {
+                    acquire(count);
+                }
+                return count;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long count = super.skip(n);
+                if (count > 0) {
+                    acquire(count);
+                }
+                return count;
+            }
+        };
+    }
+}
@@ -0,0 +1,94 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The ordered list of sources from which the mirror downloads each file, ending with
+ * the file's origin at NIST.  Each source before the origin is the base URL of a
+ * directory holding files under the names the mirror gives them, which is just what
+ * another mirror's output directory holds, whether it is served over HTTP or reached
+ * through the file system.  A file is sought from each source in turn, falling
+ * through to the next when a source lacks the file or fails.
+ * <p>
+ * A source given as a plain path, rather than a URL, names a local directory.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class Upstreams {
+
+    private final List<String> bases;
+
+    /**
+     * Create a list of sources.
+     *
+     * @param   sources     the base URLs, or directory paths, of the sources to be tried
+     *                      in order before each file's origin; may be empty or null
+     */
+    public Upstreams(List<String> sources) {
+        List<String> normalized = new ArrayList<String>();
+        if (sources != null) {
+            for (String aSource : sources) {
+                String base = aSource.trim();
+                if (base.isEmpty()) {
+                    continue;
+                }
+                if (!base.contains(":/")) {
+                    base = new File(base).getAbsoluteFile().toURI().toString();
+                }
+                normalized.add(base.endsWith("/") ? base : base + "/");
+            }
+        }
+        bases = Collections.unmodifiableList(normalized);
+    }
+
+    /**
+     * Indicate whether any sources precede the origin.
+     *
+     * @return  true if and only if files are sought elsewhere before their origin
+     */
+    public boolean isEmpty() {
+        return bases.isEmpty();
+    }
+
+    /**
+     * Return the URLs from which to seek a file, in the order in which to try them.
+     *
+     * @param   originUrl   the URL of the file at its origin
+     *
+     * @return  the file's URL at each source, followed by its origin URL
+     *
+     * @throws MalformedURLException    when a source or the origin URL is malformed.
+     */
+    public List<URL> locate(String originUrl) throws MalformedURLException {
+        URL origin = new URL(originUrl);
+        String path = origin.getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        List<URL> candidates = new ArrayList<URL>(bases.size() + 1);
+        for (String aBase : bases) {
+            candidates.add(new URL(new URL(aBase), name));
+        }
+        candidates.add(origin);
+        return candidates;
+    }
+}
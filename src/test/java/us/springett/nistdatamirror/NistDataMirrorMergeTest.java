@@ -0,0 +1,236 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import us.springett.nistdatamirror.NistDataMirror.NvdOption;
+import us.springett.nistdatamirror.NistDataMirror.Options;
+import us.springett.nistdatamirror.NistDataMirror.RefreshScope;
+import us.springett.nistdatamirror.internal.NvdMeta;
+import us.springett.nistdatamirror.internal.SidecarStore;
+
+/**
+ * Tests that a yearly feed into which the modified feed was merged is marked as
+ * diverged from NIST's, downloaded afresh by the next refresh of the yearly feeds
+ * rather than revalidated, and revalidated as usual after that.  The feeds are served
+ * by a local upstream that stands in for NIST.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class NistDataMirrorMergeTest {
+
+    private static final String YEARLY_2017 = "nvdcve-1.0-2017.json.gz";
+    private static final String MODIFIED = "nvdcve-1.0-modified.json.gz";
+    private static final String DIVERGED = YEARLY_2017 + ".diverged";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private HttpServer server;
+    private final Map<String, byte[]> feeds = new ConcurrentHashMap<String, byte[]>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private File dir;
+    private NistDataMirror mirror;
+
+    @Before
+    public void setUp() throws IOException {
+        feeds.put(YEARLY_2017, gzip(resource("internal/nvdcve-1.0-2017.json")));
+        feeds.put(MODIFIED, gzip(resource("internal/nvdcve-1.0-modified.json")));
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::serve);
+        server.start();
+
+        dir = temp.newFolder("mirror");
+        Options opts = new Options();
+        opts.nvdOpt = NvdOption.JSON;
+        opts.recursion = new Integer(0);
+        opts.retries = new Integer(0);
+        opts.mergeModified = Boolean.TRUE;
+        opts.upstreams.add("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        mirror = new NistDataMirror(opts, new NullAnnunciator(), dir);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void mergedFeedIsFetchedAfreshThenRevalidated() throws IOException {
+        SidecarStore sidecars = new SidecarStore(dir);
+        File feed = new File(dir, YEARLY_2017);
+
+        assertTrue(mirror.refresh(EnumSet.of(RefreshScope.MODIFIED, RefreshScope.YEARLY)).completed);
+        assertTrue(text(feed).contains("CVE-2017-0004"));
+        assertNotNull(sidecars.load(DIVERGED));
+        assertNull(sidecars.load(YEARLY_2017));
+
+        // NIST's copy is unchanged, but the merged one no longer matches it.
+        requests.clear();
+        assertTrue(mirror.refresh(EnumSet.of(RefreshScope.YEARLY)).completed);
+        assertTrue(requests.contains("GET " + YEARLY_2017 + " unconditional"));
+        assertArrayEquals(feeds.get(YEARLY_2017), Files.readAllBytes(feed.toPath()));
+        assertNull(sidecars.load(DIVERGED));
+        assertEquals(etag(YEARLY_2017), sidecars.load(YEARLY_2017).getProperty("etag"));
+
+        // Once it matches again, it is not downloaded again.
+        requests.clear();
+        assertTrue(mirror.refresh(EnumSet.of(RefreshScope.YEARLY)).completed);
+        assertFalse(requests.contains("GET " + YEARLY_2017 + " unconditional"));
+        assertFalse(requests.contains("GET " + YEARLY_2017 + " 200"));
+    }
+
+    // Private implementation
+
+    /*
+     * Serve every JSON feed and its meta file, with an ETag that conditional requests
+     * are checked against.  Years other than 2017 have empty feeds.
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            boolean isMeta = name.endsWith(".meta");
+            String feedName = isMeta ? name.substring(0, name.length() - 5) + ".json.gz" : name;
+            byte[] gz = feed(feedName);
+            if (gz == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            byte[] body = isMeta ? meta(gz) : gz;
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            boolean conditional = ifNoneMatch != null
+                || exchange.getRequestHeaders().getFirst("If-Modified-Since") != null;
+            if (!isMeta) {
+                exchange.getResponseHeaders().set("ETag", etag(feedName));
+            }
+            boolean current = !isMeta && etag(feedName).equals(ifNoneMatch);
+            if (!isMeta && "GET".equals(exchange.getRequestMethod())) {
+                requests.add("GET " + name + (conditional ? "" : " unconditional"));
+                requests.add("GET " + name + (current ? " 304" : " 200"));
+            }
+            if (current) {
+                exchange.sendResponseHeaders(304, -1);
+            } else if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream outS = exchange.getResponseBody()) {
+                    outS.write(body);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private byte[] feed(String name) throws IOException {
+        byte[] gz = feeds.get(name);
+        if (gz == null && name.matches("nvdcve-1\\.0-\\d{4}\\.json\\.gz")) {
+            gz = gzip("{\n  \"CVE_data_type\" : \"CVE\",\n  \"CVE_data_numberOfCVEs\" : \"0\",\n"
+                + "  \"CVE_data_timestamp\" : \"2017-10-01T07:00Z\",\n  \"CVE_Items\" : [ ]\n}\n");
+            feeds.put(name, gz);
+        }
+        return gz;
+    }
+
+    private static byte[] meta(byte[] gz) throws IOException {
+        String json = new String(gunzip(gz), StandardCharsets.UTF_8);
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        try {
+            String sha256 = NvdMeta.toHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+            return ("lastModifiedDate:2017-10-01T03:00:00-04:00\r\nsize:" + bytes.length + "\r\nzipSize:0\r\n"
+                + "gzSize:" + gz.length + "\r\nsha256:" + sha256 + "\r\n").getBytes(StandardCharsets.UTF_8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String etag(String name) {
+        return "\"" + Integer.toHexString(name.hashCode()) + "\"";
+    }
+
+    private static String resource(String name) throws IOException {
+        try (InputStream inS = NistDataMirrorMergeTest.class.getResourceAsStream(name)) {
+            return new String(read(inS), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String text(File gzFile) throws IOException {
+        return new String(gunzip(Files.readAllBytes(gzFile.toPath())), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream outS = new GZIPOutputStream(bytes)) {
+            outS.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] gz) throws IOException {
+        try (InputStream inS = new GZIPInputStream(new ByteArrayInputStream(gz))) {
+            return read(inS);
+        }
+    }
+
+    private static byte[] read(InputStream inS) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int count;
+        while ((count = inS.read(buf)) > 0) {
+            bytes.write(buf, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+}
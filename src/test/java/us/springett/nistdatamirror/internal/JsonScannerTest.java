@@ -0,0 +1,167 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+/**
+ * Tests of JsonScanner, chiefly that values it copies through come out exactly as
+ * they went in and that strings it reads are unescaped correctly.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class JsonScannerTest {
+
+    @Test
+    public void walksObjectsAndArrays() throws IOException {
+        JsonScanner json = scanner("{ \"a\" : [ \"x\", \"y\" ], \"b\" : { \"c\" : \"z\" } }");
+        json.beginObject();
+        assertTrue(json.hasNext());
+        assertEquals("a", json.nextName());
+        json.beginArray();
+        assertTrue(json.hasNext());
+        assertEquals("x", json.nextString());
+        assertTrue(json.hasNext());
+        assertEquals("y", json.nextString());
+        assertFalse(json.hasNext());
+        json.endArray();
+        assertTrue(json.hasNext());
+        assertEquals("b", json.nextName());
+        json.beginObject();
+        assertEquals("c", json.nextName());
+        assertEquals("z", json.nextString());
+        assertFalse(json.hasNext());
+        json.endObject();
+        assertFalse(json.hasNext());
+        json.endObject();
+    }
+
+    @Test
+    public void unescapesStrings() throws IOException {
+        JsonScanner json = scanner("\"q\\\"b\\\\s\\/n\\nt\\tr\\rb\\bf\\fu\\u00e9\\u0041\"");
+        assertEquals("q\"b\\s/n\nt\tr\rb\bf\fu\u00e9A", json.nextString());
+    }
+
+    @Test
+    public void rawValueKeepsExactText() throws IOException {
+        String value = "{\n  \"s\" : \"a \\\"quoted\\\" \\\\ \\/ \\u00e9 caf\u00e9\\n\",\n"
+            + "  \"n\" : [ -1.5e+3, 0, 42 ],\t\"t\" : true, \"f\" : false, \"z\" : null,\n"
+            + "  \"o\" : { \"nested\" : [ [ ], { } ] }\n}";
+        JsonScanner json = scanner("[ " + value + " , \"after\" ]");
+        json.beginArray();
+        assertTrue(json.hasNext());
+        assertEquals(value, json.rawValue());
+        assertTrue(json.hasNext());
+        assertEquals("after", json.nextString());
+        assertFalse(json.hasNext());
+        json.endArray();
+    }
+
+    @Test
+    public void rawValueOfScalars() throws IOException {
+        JsonScanner json = scanner("[\"a\\\"b\", -0.25E-7, true, null]");
+        json.beginArray();
+        json.hasNext();
+        assertEquals("\"a\\\"b\"", json.rawValue());
+        json.hasNext();
+        assertEquals("-0.25E-7", json.rawValue());
+        json.hasNext();
+        assertEquals("true", json.rawValue());
+        json.hasNext();
+        assertEquals("null", json.rawValue());
+        assertFalse(json.hasNext());
+        json.endArray();
+    }
+
+    @Test
+    public void skipsNestedValues() throws IOException {
+        JsonScanner json = scanner("{ \"skip\" : { \"a\" : [ 1, { \"b\" : \"}]\" } ] }, \"keep\" : \"k\" }");
+        json.beginObject();
+        assertEquals("skip", json.nextName());
+        json.skipValue();
+        assertTrue(json.hasNext());
+        assertEquals("keep", json.nextName());
+        assertEquals("k", json.nextString());
+        assertFalse(json.hasNext());
+        json.endObject();
+    }
+
+    @Test
+    public void quoteRoundTrips() throws IOException {
+        String original = "\"quoted\" back\\slash caf\u00e9 \u0001\u001f\n\t end";
+        String quoted = JsonScanner.quote(original);
+        assertEquals(original, scanner(quoted).nextString());
+        assertEquals(quoted, scanner(quoted).rawValue());
+        assertEquals("\"\\\"quoted\\\" back\\\\slash caf\u00e9 \\u0001\\u001f\\u000a\\u0009 end\"", quoted);
+    }
+
+    @Test
+    public void rejectsUnterminatedString() {
+        assertMalformed("\"no end");
+        assertMalformed("\"escape at end\\");
+    }
+
+    @Test
+    public void rejectsBadUnicodeEscape() {
+        assertMalformed("\"\\u00zz\"");
+    }
+
+    @Test
+    public void rejectsUnexpectedStructure() throws IOException {
+        try {
+            scanner("[ 1 ]").beginObject();
+            fail("An array was read as an object.");
+        } catch (IOException e) {
+            // expected
+        }
+        JsonScanner json = scanner("[ 1, 2");
+        json.beginArray();
+        json.hasNext();
+        json.skipValue();
+        json.hasNext();
+        json.skipValue();
+        try {
+            json.hasNext();
+            fail("The end of the text was not noticed.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    // Private implementation
+
+    private static JsonScanner scanner(String text) {
+        return new JsonScanner(new StringReader(text));
+    }
+
+    private static void assertMalformed(String text) {
+        try {
+            scanner(text).nextString();
+            fail("Malformed string " + text + " was read.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/* This file is Copyright (c) 2017 Brent Whitmore. All Rights Reserved.
+ *
+ * This file is part of nist-data-mirror.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package us.springett.nistdatamirror.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of NvdFeedMerger on small fixture feeds: a yearly feed for 2017 and a modified
+ * feed that revises, repeats, adds and predates its items.
+ * <p>
+ * @author Brent Whitmore (bwhitmore@whitware.com)
+ */
+public class NvdFeedMergerTest {
+
+    private static final int FIRST_YEAR = 2002;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File yearly;
+    private File modified;
+    private List<String> yearlyItems;
+    private List<String> modifiedItems;
+
+    @Before
+    public void setUp() throws IOException {
+        yearly = gzip(resource("nvdcve-1.0-2017.json"), temp.newFile("nvdcve-1.0-2017.json.gz"));
+        modified = gzip(resource("nvdcve-1.0-modified.json"), temp.newFile("nvdcve-1.0-modified.json.gz"));
+        yearlyItems = items(gunzip(yearly));
+        modifiedItems = items(gunzip(modified));
+    }
+
+    @Test
+    public void assignsItemsToTheYearsOfTheirIds() throws IOException {
+        NvdFeedMerger merger = new NvdFeedMerger(modified, FIRST_YEAR);
+        assertEquals(new TreeSet<Integer>(Arrays.asList(FIRST_YEAR, 2016, 2017)), merger.years());
+    }
+
+    @Test
+    public void replacesOnlyOlderItemsAndAddsMissingOnes() throws IOException {
+        NvdFeedMerger merger = new NvdFeedMerger(modified, FIRST_YEAR);
+        File merged = temp.newFile();
+        assertEquals(2, merger.merge(yearly, 2017, merged, null));
+        // CVE-2017-0001 takes the later of its two revisions, whose ID and date are
+        // those of the item rather than the nested ones; CVE-2017-0002 is newer in
+        // the yearly feed; CVE-2017-0003 is untouched; CVE-2017-0004 is added.
+        assertEquals(Arrays.asList(modifiedItems.get(1), yearlyItems.get(1), yearlyItems.get(2),
+            modifiedItems.get(3)), items(gunzip(merged)));
+    }
+
+    @Test
+    public void rewritesCountAndTimestampOnly() throws IOException {
+        NvdFeedMerger merger = new NvdFeedMerger(modified, FIRST_YEAR);
+        File merged = temp.newFile();
+        merger.merge(yearly, 2017, merged, null);
+        Map<String, String> before = members(gunzip(yearly));
+        Map<String, String> after = members(gunzip(merged));
+        assertEquals(new ArrayList<String>(before.keySet()), new ArrayList<String>(after.keySet()));
+        assertEquals("\"4\"", after.get("CVE_data_numberOfCVEs"));
+        assertEquals("\"2017-10-02T07:00Z\"", after.get("CVE_data_timestamp"));
+        for (String aName : Arrays.asList("CVE_data_type", "CVE_data_format", "CVE_data_version")) {
+            assertEquals(before.get(aName), after.get(aName));
+        }
+    }
+
+    @Test
+    public void keepsNumericCountNumericAndLaterTimestamp() throws IOException {
+        String text = gunzip(yearly)
+            .replace("\"CVE_data_numberOfCVEs\" : \"3\"", "\"CVE_data_numberOfCVEs\" : 3")
+            .replace("2017-10-01T07:00Z", "2017-12-01T07:00Z");
+        File numeric = gzip(text, temp.newFile());
+        File merged = temp.newFile();
+        new NvdFeedMerger(modified, FIRST_YEAR).merge(numeric, 2017, merged, null);
+        Map<String, String> after = members(gunzip(merged));
+        assertEquals("4", after.get("CVE_data_numberOfCVEs"));
+        assertEquals("\"2017-12-01T07:00Z\"", after.get("CVE_data_timestamp"));
+    }
+
+    @Test
+    public void writesTheSameFeedUncompressed() throws IOException {
+        File merged = temp.newFile();
+        File mergedJson = temp.newFile();
+        new NvdFeedMerger(modified, FIRST_YEAR).merge(yearly, 2017, merged, mergedJson);
+        assertArrayEquals(gunzip(merged).getBytes(StandardCharsets.UTF_8), Files.readAllBytes(mergedJson.toPath()));
+    }
+
+    @Test
+    public void leavesACurrentFeedAlone() throws IOException {
+        NvdFeedMerger merger = new NvdFeedMerger(modified, FIRST_YEAR);
+        File merged = temp.newFile();
+        merger.merge(yearly, 2017, merged, null);
+        File again = new File(temp.getRoot(), "again.json.gz");
+        assertEquals(0, merger.merge(merged, 2017, again, null));
+        assertFalse(again.exists());
+        assertEquals(0, merger.merge(yearly, 2015, again, null));
+        assertFalse(again.exists());
+    }
+
+    // Private implementation
+
+    private static String resource(String name) throws IOException {
+        try (InputStream inS = NvdFeedMergerTest.class.getResourceAsStream(name)) {
+            return read(inS);
+        }
+    }
+
+    private static File gzip(String text, File gzFile) throws IOException {
+        try (OutputStream outS = new GZIPOutputStream(new FileOutputStream(gzFile))) {
+            outS.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return gzFile;
+    }
+
+    private static String gunzip(File gzFile) throws IOException {
+        try (InputStream inS = new GZIPInputStream(new FileInputStream(gzFile))) {
+            return read(inS);
+        }
+    }
+
+    private static String read(InputStream inS) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int count;
+        while ((count = inS.read(buf)) > 0) {
+            bytes.write(buf, 0, count);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /*
+     * The exact text of each top-level member of a feed.
+     */
+    private static Map<String, String> members(String feed) throws IOException {
+        Map<String, String> members = new LinkedHashMap<String, String>();
+        JsonScanner json = new JsonScanner(new StringReader(feed));
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            members.put(name, json.rawValue());
+        }
+        json.endObject();
+        return members;
+    }
+
+    /*
+     * The exact text of each CVE item of a feed.
+     */
+    private static List<String> items(String feed) throws IOException {
+        List<String> items = new ArrayList<String>();
+        JsonScanner json = new JsonScanner(new StringReader(members(feed).get("CVE_Items")));
+        json.beginArray();
+        while (json.hasNext()) {
+            items.add(json.rawValue());
+        }
+        json.endArray();
+        return items;
+    }
+}